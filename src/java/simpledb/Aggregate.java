@@ -1,22 +1,40 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The groups are aggregated in memory up to a memory budget. Once it is
+ * full, the tuples of groups already in memory are still aggregated there,
+ * but the tuples of new groups are split into partitions by the hash of the
+ * group field and spilled to {@link SpillFile}s. Each spilled partition then
+ * holds all the tuples of its groups, and is aggregated in turn by an
+ * Aggregate that partitions again, with another hash, if its groups still
+ * don't fit. After {@link SpillFile#MAX_LEVELS} levels the groups are kept
+ * in memory anyway.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
     private OpIterator child;
+    /** Estimated bytes of memory per group besides its key. */
+    private static final int GROUP_OVERHEAD = 32;
+
     private int afield, gfield;
     private Aggregator.Op op;
 //    private TupleDesc td;
-    private Aggregator aggregator;
+    private AggregatorImpl aggregator;
     private OpIterator it;
+    private final int memoryPages;
+    private final int level;
+
+    transient private SpillFile[] spills;  // null until the budget is full
+    transient private int partition;  // the spilled partition it aggregates, if any
 
     /**
      * Constructor.
@@ -37,12 +55,33 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op op) {
+        this(child, afield, gfield, op, SpillFile.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryPages
+     *            the number of pages of memory to aggregate groups in
+     * @see #Aggregate(OpIterator, int, int, Aggregator.Op)
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op op, int memoryPages) {
+        this(child, afield, gfield, op, memoryPages, 0);
+    }
+
+    private Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op op, int memoryPages, int level) {
 	// some code goes here
         this.child = child;
         this.afield = afield;
         this.gfield = gfield;
         this.op = op;
+        this.memoryPages = Math.max(1, memoryPages);
+        this.level = level;
+        aggregator = newAggregator();
+    }
 
+    private AggregatorImpl newAggregator() {
+        AggregatorImpl aggregator;
         Type gfieldType = gfield == Aggregator.NO_GROUPING ? null : child.getTupleDesc().getFieldType(gfield);
         switch (child.getTupleDesc().getFieldType(afield)) {
             case INT_TYPE:
@@ -57,6 +96,7 @@ public class Aggregate extends Operator {
                         child.getTupleDesc().getFieldName(afield),
                         child.getTupleDesc().getFieldType(afield)));
         }
+        return aggregator;
     }
 
     /**
@@ -108,29 +148,101 @@ public class Aggregate extends Operator {
 	    return aop.toString();
     }
 
+    /** @return the number of groups that fit in the memory budget */
+    private int budget() {
+        return SpillFile.fitInPages(memoryPages,
+                child.getTupleDesc().getFieldType(gfield).getLen() + GROUP_OVERHEAD);
+    }
+
+    /** @return the partition of key; every level uses another hash */
+    private int partitionOf(Field key) {
+        return Math.floorMod(Utility.mixHash(key.hashCode() + level * 0x9e3779b9), spills.length);
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	    // some code goes here
         child.open();
-        while (child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next()); // Perform grouping
+        aggregator = newAggregator();
+        boolean budgeted = gfield != Aggregator.NO_GROUPING && level < SpillFile.MAX_LEVELS;
+        int budget = budgeted ? budget() : Integer.MAX_VALUE;
+        try {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (aggregator.numGroups() >= budget && !aggregator.hasGroup(t.getField(gfield))) {
+                    if (spills == null) {
+                        spills = new SpillFile[SpillFile.numPartitions(memoryPages)];
+                        for (int p = 0; p < spills.length; p++) {
+                            spills[p] = new SpillFile(child.getTupleDesc());
+                        }
+                    }
+                    spills[partitionOf(t.getField(gfield))].add(t);
+                } else {
+                    aggregator.mergeTupleIntoGroup(t); // Perform grouping
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException(e.toString());
         }
         child.close();
 
+        partition = -1;
         it = aggregator.iterator();
         it.open(); // Perform aggregation
         super.open();
     }
 
+    /**
+     * Starts aggregating the next spilled partition that has tuples.
+     *
+     * @return false if there are none left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (spills == null) {
+            return false;
+        }
+        it.close();
+        if (partition >= 0) {
+            spills[partition].delete();
+        }
+        for (partition++; partition < spills.length; partition++) {
+            if (spills[partition].size() > 0) {
+                it = new Aggregate(spills[partition].iterator(), afield, gfield, op, memoryPages, level + 1);
+                it.open();
+                return true;
+            }
+            spills[partition].delete();
+        }
+        it = null;
+        spills = null;
+        return false;
+    }
+
     public void close() {
         // some code goes here
         super.close();
-        it = null;
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        if (spills != null) {
+            for (SpillFile spill : spills) {
+                if (spill != null) {  // open() may have failed creating them
+                    spill.delete();
+                }
+            }
+            spills = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        it.rewind();
+        if (spills == null && partition < 0) {
+            it.rewind();
+        } else {
+            close();
+            open();
+        }
     }
 
     /**
@@ -142,8 +254,13 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	    // some code goes here
-        if (it != null && it.hasNext()) {
-            return it.next();
+        while (it != null) {
+            if (it.hasNext()) {
+                return it.next();
+            }
+            if (!nextPartition()) {
+                return null;
+            }
         }
 	    return null;
     }
@@ -4,17 +4,37 @@ import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Each group gets a slot the first time one of its tuples is merged, and
+ * keeps only the running state its aggregate needs, in primitive arrays
+ * indexed by slot: a count, a sum, a minimum or a maximum. Memory therefore
+ * grows with the number of groups, not the number of tuples. Integer group
+ * keys are looked up in an {@link IntKeyHashTable}, other keys in a HashMap.
+ * <p>
+ * An aggregate can be split into a partial aggregate over each part of the
+ * input and a final aggregate over the partial results, see
+ * {@link #partialOp} and {@link #finalOp}. SUM_COUNT returns the sum and
+ * the count of each group, and SC_AVG combines such (sum, count) pairs,
+ * taken from afield and afield + 1, into averages.
  */
 public abstract class AggregatorImpl implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int INITIAL_SLOTS = 16;
+
     protected final int gfield, afield;
     protected final Type gfieldType;
     protected final Op op;
     protected TupleDesc td;
-    private final Map<Field, List<Field>> aggGroups = new HashMap<>();
-    private final Map<Field, Tuple> aggResults = new HashMap<>();
+
+    private final Map<Field, Integer> slots = new HashMap<>();
+    private final IntKeyHashTable intSlots;  // the slots instead, for INT_TYPE group keys
+    private Field[] keys = new Field[INITIAL_SLOTS];
+    private long[] counts = new long[INITIAL_SLOTS];
+    private long[] sums;  // each array is null unless op needs it
+    private int[] mins, maxs;
+    private int numGroups;
 
     /**
      * Aggregate constructor
@@ -37,17 +57,54 @@ public abstract class AggregatorImpl implements Aggregator {
         this.afield = afield;
         this.gfieldType = gfieldtype;
         this.op = what;
+        intSlots = gfield != Aggregator.NO_GROUPING && gfieldtype == Type.INT_TYPE
+                ? new IntKeyHashTable() : null;
 
-        if (gfield == Aggregator.NO_GROUPING) {
-            TupleDesc.TDItem item = new TupleDesc.TDItem(
-                    Type.INT_TYPE, null);
-            td = new TupleDesc(new TupleDesc.TDItem[]{ item });
-        } else {
-            TupleDesc.TDItem gitem = new TupleDesc.TDItem(
-                    gfieldType, null);
-            TupleDesc.TDItem aitem = new TupleDesc.TDItem(
-                    Type.INT_TYPE, null);
-            td = new TupleDesc(new TupleDesc.TDItem[]{ gitem, aitem });
+        switch (what) {
+            case SUM:
+            case AVG:
+            case SUM_COUNT:
+            case SC_AVG:
+                sums = new long[INITIAL_SLOTS];
+                break;
+            case MIN:
+                mins = new int[INITIAL_SLOTS];
+                break;
+            case MAX:
+                maxs = new int[INITIAL_SLOTS];
+                break;
+            default:
+                break;
+        }
+
+        List<TupleDesc.TDItem> items = new ArrayList<>();
+        if (gfield != Aggregator.NO_GROUPING) {
+            items.add(new TupleDesc.TDItem(gfieldType, null));
+        }
+        items.add(new TupleDesc.TDItem(Type.INT_TYPE, null));
+        if (what == Op.SUM_COUNT) {
+            items.add(new TupleDesc.TDItem(Type.INT_TYPE, null));
+        }
+        td = new TupleDesc(items.toArray(new TupleDesc.TDItem[0]));
+    }
+
+    /**
+     * @return the op to aggregate each part of the input with, so that
+     *         {@link #finalOp} of the partial results gives op of the input
+     */
+    public static Op partialOp(Op op) {
+        return op == Op.AVG ? Op.SUM_COUNT : op;
+    }
+
+    /** @return the op that combines the partial results of {@link #partialOp} */
+    public static Op finalOp(Op op) {
+        switch (op) {
+            case AVG:
+                return Op.SC_AVG;
+            case COUNT:
+                return Op.SUM;
+            default:
+                return op;
         }
     }
 
@@ -55,6 +112,67 @@ public abstract class AggregatorImpl implements Aggregator {
         return td;
     }
 
+    /** @return the integer value of f, for the aggregates that need one */
+    protected int valueOf(Field f) {
+        return ((IntField) f).getValue();
+    }
+
+    /** @return the number of groups merged so far */
+    int numGroups() {
+        return numGroups;
+    }
+
+    /** @return whether a tuple of the group key has been merged */
+    boolean hasGroup(Field key) {
+        if (intSlots != null) {
+            return intSlots.get(((IntField) key).getValue()) != IntKeyHashTable.MISSING;
+        }
+        return slots.containsKey(key);
+    }
+
+    /** @return the slot of the group key, taking a new one if it has none */
+    private int slotOf(Field key) {
+        if (intSlots != null) {
+            int slot = intSlots.get(((IntField) key).getValue());
+            if (slot != IntKeyHashTable.MISSING) {
+                return slot;
+            }
+        } else {
+            Integer slot = slots.get(key);
+            if (slot != null) {
+                return slot;
+            }
+        }
+        if (numGroups == keys.length) {
+            int n = 2 * keys.length;
+            keys = Arrays.copyOf(keys, n);
+            counts = Arrays.copyOf(counts, n);
+            if (sums != null) {
+                sums = Arrays.copyOf(sums, n);
+            }
+            if (mins != null) {
+                mins = Arrays.copyOf(mins, n);
+            }
+            if (maxs != null) {
+                maxs = Arrays.copyOf(maxs, n);
+            }
+        }
+        int s = numGroups++;
+        keys[s] = key;
+        if (mins != null) {
+            mins[s] = Integer.MAX_VALUE;
+        }
+        if (maxs != null) {
+            maxs[s] = Integer.MIN_VALUE;
+        }
+        if (intSlots != null) {
+            intSlots.put(((IntField) key).getValue(), s);
+        } else {
+            slots.put(key, s);
+        }
+        return s;
+    }
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
@@ -64,38 +182,55 @@ public abstract class AggregatorImpl implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        if (gfield == Aggregator.NO_GROUPING) {
-            if (!aggGroups.containsKey(null)) {
-                aggGroups.put(null, new ArrayList<>());
-            }
-            aggGroups.get(null).add(tup.getField(afield));
-        } else {
-            Field key = tup.getField(gfield);
-            if (!aggGroups.containsKey(key)) {
-                aggGroups.put(key, new ArrayList<>());
-            }
-            aggGroups.get(key).add(tup.getField(afield));
+        int s = slotOf(gfield == Aggregator.NO_GROUPING ? null : tup.getField(gfield));
+        counts[s] += op == Op.SC_AVG ? valueOf(tup.getField(afield + 1)) : 1;
+        if (sums != null) {
+            sums[s] += valueOf(tup.getField(afield));
+        }
+        if (mins != null) {
+            mins[s] = Math.min(mins[s], valueOf(tup.getField(afield)));
+        }
+        if (maxs != null) {
+            maxs[s] = Math.max(maxs[s], valueOf(tup.getField(afield)));
         }
     }
 
-    protected abstract IntField aggregate(List<Field> group, Op op);
-
-    private Iterator<Field> computeAggregation() {
-        Iterator<Field> it = aggGroups.keySet().iterator();
-        while (it.hasNext()) {
-            Field group = it.next();
-            if (group == null) {
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0, aggregate(aggGroups.get(group), op));
-                aggResults.put(group, tuple);
-            } else {
-                Tuple tuple = new Tuple(td);
-                tuple.setField(0, group);
-                tuple.setField(1, aggregate(aggGroups.get(group), op));
-                aggResults.put(group, tuple);
+    /** @return a tuple with the aggregate of each group */
+    private ArrayList<Tuple> computeAggregation() {
+        ArrayList<Tuple> results = new ArrayList<>(numGroups);
+        for (int s = 0; s < numGroups; s++) {
+            Tuple tuple = new Tuple(td);
+            int i = 0;
+            if (gfield != Aggregator.NO_GROUPING) {
+                tuple.setField(i++, keys[s]);
+            }
+            switch (op) {
+                case COUNT:
+                    tuple.setField(i, new IntField((int) counts[s]));
+                    break;
+                case SUM:
+                    tuple.setField(i, new IntField((int) sums[s]));
+                    break;
+                case AVG:
+                case SC_AVG:
+                    tuple.setField(i, new IntField((int) (sums[s] / counts[s])));
+                    break;
+                case MIN:
+                    tuple.setField(i, new IntField(mins[s]));
+                    break;
+                case MAX:
+                    tuple.setField(i, new IntField(maxs[s]));
+                    break;
+                case SUM_COUNT:
+                    tuple.setField(i, new IntField((int) sums[s]));
+                    tuple.setField(i + 1, new IntField((int) counts[s]));
+                    break;
+                default:
+                    throw new RuntimeException("Op not supported: " + op.name());
             }
+            results.add(tuple);
         }
-        return aggResults.keySet().iterator();
+        return results;
     }
 
     /**
@@ -113,11 +248,13 @@ public abstract class AggregatorImpl implements Aggregator {
             this.aggregator = aggregator;
         }
 
-        private Iterator<Field> groupIt;
+        private ArrayList<Tuple> results;
+        private Iterator<Tuple> groupIt;
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            groupIt = aggregator.computeAggregation();
+            results = aggregator.computeAggregation();
+            groupIt = results.iterator();
         }
 
         @Override
@@ -133,8 +270,7 @@ public abstract class AggregatorImpl implements Aggregator {
             if (groupIt == null) {
                 throw new IllegalStateException("Iterator not open.");
             }
-            Field group = groupIt.next();
-            return aggregator.aggResults.get(group);
+            return groupIt.next();
         }
 
         @Override
@@ -142,7 +278,7 @@ public abstract class AggregatorImpl implements Aggregator {
             if (groupIt == null) {
                 throw new IllegalStateException("Iterator not open.");
             }
-            groupIt = aggregator.aggResults.keySet().iterator();
+            groupIt = results.iterator();
         }
 
         @Override
@@ -153,6 +289,7 @@ public abstract class AggregatorImpl implements Aggregator {
         @Override
         public void close() {
             groupIt = null;
+            results = null;
         }
     }
-}
\ No newline at end of file
+}
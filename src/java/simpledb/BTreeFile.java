@@ -0,0 +1,463 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores its tuples in the leaves of a B+ tree,
+ * sorted on one key field, so that lookups and range scans on the key only
+ * read the pages on the way down and the leaves that match.
+ * <p>
+ * The pages are stored in a {@link PagedFile}. Page 0 is a {@link BTreeRootPtrPage} pointing to the root and to
+ * the {@link BTreeHeaderPage}s, which keep track of the pages freed when
+ * leaves become empty; the other pages are {@link BTreeInternalPage}s and
+ * {@link BTreeLeafPage}s. An empty or missing file is an empty tree.
+ * <p>
+ * Pages are locked through the BufferPool like those of a HeapFile: a lookup
+ * reads the pages it passes READ_ONLY, an update also locks the pages it
+ * changes READ_WRITE. Changed pages are marked dirty as soon as they are
+ * changed, so an update that fails half way is undone when its transaction
+ * aborts. New pages are only cached when the update returns them.
+ *
+ * @see BTreePageId
+ */
+public class BTreeFile implements DbFile {
+
+    private final PagedFile file;
+    private final TupleDesc td;
+    private final int keyField;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param keyField the index of the field the tuples are sorted on
+     * @param td the TupleDesc of the tuples in the file
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        if (keyField < 0 || keyField >= td.numFields()) {
+            throw new IllegalArgumentException("No field " + keyField + " in " + td);
+        }
+        file = new PagedFile(f, 1);
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /** @return the File backing this BTreeFile on disk. */
+    public File getFile() {
+        return file.getFile();
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, the hash of the
+     * absolute file name as for HeapFile.
+     */
+    public int getId() {
+        return getFile().getAbsolutePath().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index of the field the tuples are sorted on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /** @return the type of the key field */
+    public Type keyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /** @return the id of the root pointer page of this file */
+    public BTreePageId getRootPtrId() {
+        return new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof BTreePageId)) {
+            throw new IllegalArgumentException("Page " + pid + " is not a BTreePageId");
+        }
+        try {
+            return BTreePage.create((BTreePageId) pid, file.read(pid.getPageNumber()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        file.write(page);
+    }
+
+    /** Returns the number of pages in this file, including the root pointer page. */
+    public int numPages() {
+        return file.numPages();
+    }
+
+    /** Gets page pid through the BufferPool. */
+    private BTreePage getPage(TransactionId tid, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Creates an empty page of category pgcateg, reusing a free page if
+     * there is one, see {@link PagedFile#created}.
+     */
+    private BTreePage newPage(TransactionId tid, int pgcateg, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNo = claimFreePage(tid, dirtied);
+        if (pageNo < 0) {
+            pageNo = file.allocatePage();
+        }
+        BTreePage page = BTreePage.create(new BTreePageId(getId(), pageNo, pgcateg),
+                new byte[BufferPool.getPageSize()]);
+        PagedFile.created(tid, page, dirtied);
+        return page;
+    }
+
+    /**
+     * Takes a page off the free list.
+     *
+     * @return its number, or -1 if no page is free
+     */
+    private int claimFreePage(TransactionId tid, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) page(tid, getRootPtrId(), Permissions.READ_ONLY, dirtied);
+        int base = 0;
+        for (BTreePageId hid = rootPtr.getHeaderId(); hid != null; ) {
+            BTreeHeaderPage header = (BTreeHeaderPage) page(tid, hid, Permissions.READ_ONLY, dirtied);
+            if (header.firstFree() >= 0) {
+                header = (BTreeHeaderPage) page(tid, hid, Permissions.READ_WRITE, dirtied);
+                int slot = header.firstFree();
+                header.setFree(slot, false);
+                return base + slot;
+            }
+            base += BTreeHeaderPage.numSlots();
+            hid = header.getNextId();
+        }
+        return -1;
+    }
+
+    /** Puts page pageNo on the free list, adding header pages as needed. */
+    private void freePage(TransactionId tid, int pageNo, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) page(tid, getRootPtrId(), Permissions.READ_ONLY, dirtied);
+        BTreePageId hid = rootPtr.getHeaderId();
+        if (hid == null) {
+            hid = newHeaderPage(tid, dirtied);
+            rootPtr = (BTreeRootPtrPage) page(tid, getRootPtrId(), Permissions.READ_WRITE, dirtied);
+            rootPtr.setHeaderId(hid);
+        }
+        for (int n = pageNo / BTreeHeaderPage.numSlots(); n > 0; n--) {
+            BTreeHeaderPage header = (BTreeHeaderPage) page(tid, hid, Permissions.READ_ONLY, dirtied);
+            BTreePageId next = header.getNextId();
+            if (next == null) {
+                next = newHeaderPage(tid, dirtied);
+                header = (BTreeHeaderPage) page(tid, hid, Permissions.READ_WRITE, dirtied);
+                header.setNextId(next);
+            }
+            hid = next;
+        }
+        BTreeHeaderPage header = (BTreeHeaderPage) page(tid, hid, Permissions.READ_WRITE, dirtied);
+        header.setFree(pageNo % BTreeHeaderPage.numSlots(), true);
+    }
+
+    /** Header pages are always new pages at the end of the file, never free ones. */
+    private BTreePageId newHeaderPage(TransactionId tid, Map<PageId, Page> dirtied)
+            throws IOException, TransactionAbortedException, DbException {
+        BTreePageId pid = new BTreePageId(getId(), file.allocatePage(), BTreePageId.HEADER);
+        PagedFile.created(tid, BTreePage.create(pid, new byte[BufferPool.getPageSize()]), dirtied);
+        return pid;
+    }
+
+    /** @see PagedFile#page */
+    private BTreePage page(TransactionId tid, BTreePageId pid, Permissions perm, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) PagedFile.page(tid, pid, perm, dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException(String.format("Tuple desc %s mismatch file desc %s", t.getTupleDesc(), td));
+        }
+        Map<PageId, Page> dirtied = new LinkedHashMap<>();
+        Field key = t.getField(keyField);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, getRootPtrId(), Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        if (rootId == null) {
+            BTreeLeafPage root = (BTreeLeafPage) newPage(tid, BTreePageId.LEAF, dirtied);
+            root.insertTuple(t);
+            rootPtr = (BTreeRootPtrPage) page(tid, getRootPtrId(), Permissions.READ_WRITE, dirtied);
+            rootPtr.setRootId(root.getId());
+            return new ArrayList<>(dirtied.values());
+        }
+
+        // descend to the rightmost leaf that may hold key, so equal keys are
+        // kept in insertion order
+        List<BTreePageId> path = new ArrayList<>();
+        List<Integer> childIndexes = new ArrayList<>();
+        BTreePageId pid = rootId;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage node = (BTreeInternalPage) getPage(tid, pid, Permissions.READ_ONLY);
+            int i = node.findChildAfter(key);
+            path.add(pid);
+            childIndexes.add(i);
+            pid = node.getChildId(i);
+        }
+        BTreeLeafPage leaf = (BTreeLeafPage) page(tid, pid, Permissions.READ_WRITE, dirtied);
+        boolean append = leaf.getRightId() == null && leaf.findAfter(key) == leaf.numTuples();
+        leaf.insertTuple(t);
+        if (leaf.numTuples() <= leaf.maxTuples()) {
+            return new ArrayList<>(dirtied.values());
+        }
+
+        // split the leaf; appending to the last leaf moves just the new
+        // tuple, so a file loaded in key order ends up with full leaves
+        BTreeLeafPage right = (BTreeLeafPage) newPage(tid, BTreePageId.LEAF, dirtied);
+        int at = append ? leaf.numTuples() - 1 : leaf.numTuples() / 2;
+        Field separator = leaf.splitInto(at, right);
+        BTreePageId oldRight = leaf.getRightId();
+        if (oldRight != null) {
+            BTreeLeafPage next = (BTreeLeafPage) page(tid, oldRight, Permissions.READ_WRITE, dirtied);
+            next.setLeftId(right.getId());
+        }
+        right.setLeftId(leaf.getId());
+        right.setRightId(oldRight);
+        leaf.setRightId(right.getId());
+        insertInParent(tid, path, childIndexes, path.size() - 1, leaf.getId(), separator, right.getId(), dirtied);
+        return new ArrayList<>(dirtied.values());
+    }
+
+    /**
+     * Inserts separator and the new page right, split off left, into the
+     * parent of left at the given level of path, splitting the parent in
+     * turn if it overflows.
+     */
+    private void insertInParent(TransactionId tid, List<BTreePageId> path, List<Integer> childIndexes, int level,
+            BTreePageId left, Field separator, BTreePageId right, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        if (level < 0) {
+            BTreeInternalPage root = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, dirtied);
+            root.setOnlyEntry(left, separator, right);
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) page(tid, getRootPtrId(), Permissions.READ_WRITE, dirtied);
+            rootPtr.setRootId(root.getId());
+            return;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) page(tid, path.get(level), Permissions.READ_WRITE, dirtied);
+        parent.insertEntry(childIndexes.get(level), separator, right);
+        if (parent.numKeys() <= parent.maxKeys()) {
+            return;
+        }
+        BTreeInternalPage sibling = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, dirtied);
+        Field middle = parent.splitInto(parent.numKeys() / 2, sibling);
+        insertInParent(tid, path, childIndexes, level - 1, parent.getId(), middle, sibling.getId(), dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != getId()) {
+            throw new DbException(String.format("Tuple %s is not part of table %d", t, getId()));
+        }
+        Map<PageId, Page> dirtied = new LinkedHashMap<>();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, getRootPtrId(), Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        if (rootId == null
+                || !delete(tid, rootId, t, new ArrayList<BTreePageId>(), new ArrayList<Integer>(), dirtied)) {
+            throw new DbException(String.format("Tuple %s is not in table %d", t, getId()));
+        }
+        return new ArrayList<>(dirtied.values());
+    }
+
+    /**
+     * Deletes t from the subtree rooted at pid, searching every child whose
+     * key range includes the key of t. path and childIndexes lead from the
+     * root to pid.
+     *
+     * @return whether t was found
+     */
+    private boolean delete(TransactionId tid, BTreePageId pid, Tuple t, List<BTreePageId> path,
+            List<Integer> childIndexes, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        if (pid.pgcateg() == BTreePageId.LEAF) {
+            BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, pid, Permissions.READ_ONLY);
+            if (leaf.indexOf(t) < 0) {
+                return false;
+            }
+            leaf = (BTreeLeafPage) page(tid, pid, Permissions.READ_WRITE, dirtied);
+            leaf.deleteTuple(t);
+            if (leaf.numTuples() == 0 && !path.isEmpty()) {
+                removeLeaf(tid, leaf, path, childIndexes, dirtied);
+            }
+            return true;
+        }
+        BTreeInternalPage node = (BTreeInternalPage) getPage(tid, pid, Permissions.READ_ONLY);
+        for (int i = node.findChild(key); i < node.numChildren(); i++) {
+            if (i > 0 && node.getKey(i - 1).compare(Predicate.Op.GREATER_THAN, key)) {
+                break;
+            }
+            path.add(pid);
+            childIndexes.add(i);
+            if (delete(tid, node.getChildId(i), t, path, childIndexes, dirtied)) {
+                return true;
+            }
+            path.remove(path.size() - 1);
+            childIndexes.remove(childIndexes.size() - 1);
+        }
+        return false;
+    }
+
+    /** Unlinks the empty leaf from its siblings and its parent, and frees it. */
+    private void removeLeaf(TransactionId tid, BTreeLeafPage leaf, List<BTreePageId> path,
+            List<Integer> childIndexes, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId left = leaf.getLeftId();
+        BTreePageId right = leaf.getRightId();
+        if (left != null) {
+            ((BTreeLeafPage) page(tid, left, Permissions.READ_WRITE, dirtied)).setRightId(right);
+        }
+        if (right != null) {
+            ((BTreeLeafPage) page(tid, right, Permissions.READ_WRITE, dirtied)).setLeftId(left);
+        }
+        freePage(tid, leaf.getId().getPageNumber(), dirtied);
+        removeChild(tid, path, childIndexes, path.size() - 1, dirtied);
+    }
+
+    /**
+     * Removes the child at the given level of path from its parent. A parent
+     * left without children is removed in turn, and a root left with a
+     * single child is replaced by it.
+     */
+    private void removeChild(TransactionId tid, List<BTreePageId> path, List<Integer> childIndexes, int level,
+            Map<PageId, Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) page(tid, path.get(level), Permissions.READ_WRITE, dirtied);
+        parent.removeChild(childIndexes.get(level));
+        if (parent.numChildren() == 0) {
+            // only non-root pages can get here: the root never keeps a single child
+            freePage(tid, parent.getId().getPageNumber(), dirtied);
+            removeChild(tid, path, childIndexes, level - 1, dirtied);
+        } else if (level == 0 && parent.numChildren() == 1) {
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) page(tid, getRootPtrId(), Permissions.READ_WRITE, dirtied);
+            rootPtr.setRootId(parent.getChildId(0));
+            freePage(tid, parent.getId().getPageNumber(), dirtied);
+        }
+    }
+
+    /**
+     * Iterates over the tuples in key order, starting at the first leaf that
+     * may hold a match and stopping as soon as no later tuple can match.
+     */
+    private static class BTreeFileIterator extends AbstractDbFileIterator {
+
+        private final BTreeFile f;
+        private final TransactionId tid;
+        private final Predicate.Op op;  // null for a full scan
+        private final Field key;
+        private BTreePageId nextLeaf;
+        private List<Tuple> tuples;
+        private int pos;
+
+        private BTreeFileIterator(BTreeFile f, TransactionId tid, Predicate.Op op, Field key) {
+            this.f = f;
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        /** @return whether the tuples in key order that match op start after the first */
+        private boolean seeks() {
+            return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        }
+
+        /** @return whether no tuple after one that fails op can match */
+        private boolean stopsEarly() {
+            return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                    || op == Predicate.Op.LESS_THAN_OR_EQ;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            tuples = Collections.emptyList();
+            pos = 0;
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) f.getPage(tid, f.getRootPtrId(), Permissions.READ_ONLY);
+            BTreePageId pid = rootPtr.getRootId();
+            nextLeaf = null;
+            if (pid == null) {
+                return;
+            }
+            while (pid.pgcateg() == BTreePageId.INTERNAL) {
+                BTreeInternalPage node = (BTreeInternalPage) f.getPage(tid, pid, Permissions.READ_ONLY);
+                pid = node.getChildId(seeks() ? node.findChild(key) : 0);
+            }
+            BTreeLeafPage leaf = (BTreeLeafPage) f.getPage(tid, pid, Permissions.READ_ONLY);
+            tuples = leaf.tuples();
+            nextLeaf = leaf.getRightId();
+            if (seeks()) {
+                pos = op == Predicate.Op.GREATER_THAN ? leaf.findAfter(key) : leaf.findFirst(key);
+            }
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (tuples == null) {
+                return null;
+            }
+            while (true) {
+                while (pos < tuples.size()) {
+                    Tuple t = tuples.get(pos++);
+                    if (op == null || t.getField(f.keyField).compare(op, key)) {
+                        return t;
+                    }
+                    if (stopsEarly()) {
+                        nextLeaf = null;
+                        tuples = Collections.emptyList();
+                        return null;
+                    }
+                }
+                if (nextLeaf == null) {
+                    return null;
+                }
+                BTreeLeafPage leaf = (BTreeLeafPage) f.getPage(tid, nextLeaf, Permissions.READ_ONLY);
+                tuples = leaf.tuples();
+                pos = 0;
+                nextLeaf = leaf.getRightId();
+            }
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            tuples = null;
+            nextLeaf = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(this, tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key field satisfies
+     * <tt>key op operand</tt>, in key order. Only the leaves that may hold
+     * such tuples are read.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new BTreeFileIterator(this, tid, op, operand);
+    }
+}
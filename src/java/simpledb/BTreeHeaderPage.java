@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * BTreeHeaderPage records which pages of a BTreeFile are free, one bit per
+ * page. The header pages form a list starting at the root pointer page; the
+ * n-th page of the list covers pages n * numSlots() up to
+ * (n + 1) * numSlots() - 1.
+ * <p>
+ * The format is the number of the next header page (0 for none), then the
+ * bitmap.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int nextPgNo;
+    private final BitSet free;
+
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        ByteBuffer bb = wrap(id, data);
+        nextPgNo = bb.getInt();
+        free = BitSet.valueOf(bb);
+    }
+
+    /** @return the number of pages a header page keeps track of */
+    public static int numSlots() {
+        return (BufferPool.getPageSize() - 4) * 8;
+    }
+
+    /** @return the id of the next header page, or null if this is the last one */
+    public BTreePageId getNextId() {
+        return nextPgNo == 0 ? null : new BTreePageId(pid.getTableId(), nextPgNo, BTreePageId.HEADER);
+    }
+
+    public void setNextId(BTreePageId next) {
+        beforeModify();
+        nextPgNo = next.getPageNumber();
+    }
+
+    /** @return whether slot i is free */
+    public boolean isFree(int i) {
+        return free.get(i);
+    }
+
+    /** @return the first free slot, or -1 if there is none */
+    public int firstFree() {
+        return free.nextSetBit(0);
+    }
+
+    public void setFree(int i, boolean isFree) {
+        beforeModify();
+        free.set(i, isFree);
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(nextPgNo);
+        out.write(free.toByteArray());
+    }
+}
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeInternalPage is an inner node of a BTreeFile: n keys in ascending
+ * order and the n + 1 children between them. Child i holds the entries with
+ * keys between key i - 1 and key i, inclusive on both sides, since equal keys
+ * may end up on either side of a split.
+ * <p>
+ * The format is the category of the children and the number of keys, then
+ * the keys and then the child page numbers, both packed at the start of
+ * their arrays.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final Type keyType;
+    private final int maxKeys;
+    private int childCategory;
+    private final List<Field> keys;
+    private final List<Integer> children;
+
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        keyType = fileOf(id).keyType();
+        maxKeys = maxKeys(keyType);
+        ByteBuffer bb = wrap(id, data);
+        childCategory = bb.get();
+        int n = bb.getInt();
+        if (n > maxKeys) {
+            throw new IOException("Page " + id + " claims " + n + " keys");
+        }
+        keys = new ArrayList<>(n + 1);
+        children = new ArrayList<>(n + 2);
+        for (int i = 0; i < n; i++) {
+            keys.add(readField(keyType, bb));
+        }
+        bb.position(5 + maxKeys * keyType.getLen());
+        for (int i = 0; i < n + 1; i++) {
+            children.add(bb.getInt());
+        }
+        if (childCategory == 0) {
+            // an empty page, e.g. a new one
+            children.clear();
+        }
+    }
+
+    /** @return the number of keys that fit on an internal page with keys of type t */
+    public static int maxKeys(Type t) {
+        return (BufferPool.getPageSize() - 5 - 4) / (t.getLen() + 4);
+    }
+
+    /** @return the number of keys that fit on this page */
+    public int maxKeys() {
+        return maxKeys;
+    }
+
+    public int numKeys() {
+        return keys.size();
+    }
+
+    public int numChildren() {
+        return children.size();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /** @return the category of the children, or 0 if the page has none */
+    public int getChildCategory() {
+        return childCategory;
+    }
+
+    /**
+     * @return the index of the leftmost child that may hold key, i.e. of the
+     *         first key that is not less than key; numKeys() if there is none
+     */
+    public int findChild(Field key) {
+        int lo = 0;
+        int hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compare(Predicate.Op.LESS_THAN, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the rightmost child that may hold key, i.e. of
+     *         the first key that is greater than key; numKeys() if there is
+     *         none
+     */
+    public int findChildAfter(Field key) {
+        int lo = 0;
+        int hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compare(Predicate.Op.LESS_THAN_OR_EQ, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Makes this page the root of a tree with the two children around key. */
+    public void setOnlyEntry(BTreePageId left, Field key, BTreePageId right) {
+        beforeModify();
+        keys.clear();
+        children.clear();
+        childCategory = left.pgcateg();
+        keys.add(key);
+        children.add(left.getPageNumber());
+        children.add(right.getPageNumber());
+    }
+
+    /**
+     * Inserts key, with child right after it, as key i. The page may hold
+     * one key more than maxKeys() until it is split.
+     */
+    public void insertEntry(int i, Field key, BTreePageId right) {
+        beforeModify();
+        keys.add(i, key);
+        children.add(i + 1, right.getPageNumber());
+    }
+
+    /** Removes child i and the key that separates it from its neighbour. */
+    public void removeChild(int i) {
+        beforeModify();
+        children.remove(i);
+        if (!keys.isEmpty()) {
+            keys.remove(i == 0 ? 0 : i - 1);
+        }
+    }
+
+    /**
+     * Moves the keys after key i, with the children to their right, to the
+     * empty page right, and removes key i.
+     *
+     * @return key i, which now separates this page from right
+     */
+    public Field splitInto(int i, BTreeInternalPage right) {
+        beforeModify();
+        right.beforeModify();
+        right.childCategory = childCategory;
+        right.keys.addAll(keys.subList(i + 1, keys.size()));
+        right.children.addAll(children.subList(i + 1, children.size()));
+        Field middle = keys.get(i);
+        keys.subList(i, keys.size()).clear();
+        children.subList(i + 1, children.size()).clear();
+        return middle;
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        if (keys.size() > maxKeys) {
+            throw new IOException("Page " + pid + " is overfull");
+        }
+        out.writeByte(children.isEmpty() ? 0 : childCategory);
+        out.writeInt(keys.size());
+        for (Field key : keys) {
+            key.serialize(out);
+        }
+        for (int i = keys.size(); i < maxKeys; i++) {
+            out.write(new byte[keyType.getLen()]);
+        }
+        for (int child : children) {
+            out.writeInt(child);
+        }
+    }
+}
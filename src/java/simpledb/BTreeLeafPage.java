@@ -0,0 +1,209 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds the tuples of a BTreeFile, sorted by key, and links to
+ * its left and right siblings so range scans can walk along the leaves.
+ * <p>
+ * The format is the left and right sibling page numbers (0 for none) and the
+ * number of tuples, then the tuples packed at the start of the page. Since
+ * tuples move as others are inserted, the tuple number of their RecordId is
+ * only valid until the page is next modified.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final int maxTuples;
+    private int leftPgNo;
+    private int rightPgNo;
+    private final List<Tuple> tuples;
+
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        BTreeFile f = fileOf(id);
+        td = f.getTupleDesc();
+        keyField = f.keyField();
+        maxTuples = maxTuples(td);
+        ByteBuffer bb = wrap(id, data);
+        leftPgNo = bb.getInt();
+        rightPgNo = bb.getInt();
+        int n = bb.getInt();
+        if (n > maxTuples) {
+            throw new IOException("Page " + id + " claims " + n + " tuples");
+        }
+        tuples = new ArrayList<>(n + 1);
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, readField(td.getFieldType(j), bb));
+            }
+            t.setRecordId(new RecordId(id, i));
+            tuples.add(t);
+        }
+    }
+
+    /** @return the number of tuples of type td that fit on a leaf page */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - 12) / td.getSize();
+    }
+
+    /** @return the number of tuples that fit on this page */
+    public int maxTuples() {
+        return maxTuples;
+    }
+
+    public int numTuples() {
+        return tuples.size();
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /** @return a copy of the tuples on this page, in key order */
+    public List<Tuple> tuples() {
+        return new ArrayList<>(tuples);
+    }
+
+    /** @return the index of the first tuple whose key is not less than key */
+    public int findFirst(Field key) {
+        int lo = 0;
+        int hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getKey(mid).compare(Predicate.Op.LESS_THAN, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the index of the first tuple whose key is greater than key */
+    public int findAfter(Field key) {
+        int lo = 0;
+        int hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getKey(mid).compare(Predicate.Op.LESS_THAN_OR_EQ, key)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the id of the left sibling, or null if this is the first leaf */
+    public BTreePageId getLeftId() {
+        return leftPgNo == 0 ? null : new BTreePageId(pid.getTableId(), leftPgNo, BTreePageId.LEAF);
+    }
+
+    /** @return the id of the right sibling, or null if this is the last leaf */
+    public BTreePageId getRightId() {
+        return rightPgNo == 0 ? null : new BTreePageId(pid.getTableId(), rightPgNo, BTreePageId.LEAF);
+    }
+
+    public void setLeftId(BTreePageId left) {
+        beforeModify();
+        leftPgNo = left == null ? 0 : left.getPageNumber();
+    }
+
+    public void setRightId(BTreePageId right) {
+        beforeModify();
+        rightPgNo = right == null ? 0 : right.getPageNumber();
+    }
+
+    /**
+     * Adds t after the tuples whose key is not greater than its own. The
+     * page may hold one tuple more than maxTuples() until it is split.
+     *
+     * @throws DbException if t doesn't match the TupleDesc of the page
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException(String.format("Tuple desc %s mismatch page desc %s", t.getTupleDesc(), td));
+        }
+        beforeModify();
+        int i = findAfter(t.getField(keyField));
+        tuples.add(i, t);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /** @return the index of a tuple with the same fields as t, or -1 */
+    public int indexOf(Tuple t) {
+        Field key = t.getField(keyField);
+        for (int i = findFirst(key); i < tuples.size() && getKey(i).equals(key); i++) {
+            if (sameFields(tuples.get(i), t)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the tuple with the same fields as t.
+     *
+     * @return whether there was one
+     */
+    public boolean deleteTuple(Tuple t) {
+        int i = indexOf(t);
+        if (i < 0) {
+            return false;
+        }
+        beforeModify();
+        tuples.remove(i);
+        return true;
+    }
+
+    private static boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < a.getTupleDesc().numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the tuples from index i on to the empty page right.
+     *
+     * @return the key of the first tuple moved, which now separates this
+     *         page from right
+     */
+    public Field splitInto(int i, BTreeLeafPage right) {
+        beforeModify();
+        right.beforeModify();
+        List<Tuple> moved = tuples.subList(i, tuples.size());
+        for (Tuple t : moved) {
+            t.setRecordId(new RecordId(right.pid, right.tuples.size()));
+            right.tuples.add(t);
+        }
+        moved.clear();
+        return right.getKey(0);
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        if (tuples.size() > maxTuples) {
+            throw new IOException("Page " + pid + " is overfull");
+        }
+        out.writeInt(leftPgNo);
+        out.writeInt(rightPgNo);
+        out.writeInt(tuples.size());
+        for (Tuple t : tuples) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreePage is the base class of the pages of a BTreeFile; see IndexPage for
+ * the dirty flag and the before image.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage extends IndexPage<BTreePageId> {
+
+    protected BTreePage(BTreePageId pid) {
+        super(pid);
+    }
+
+    /**
+     * Creates the page pid from its bytes, choosing the page class from the
+     * category of pid.
+     */
+    public static BTreePage create(BTreePageId pid, byte[] data) throws IOException {
+        switch (pid.pgcateg()) {
+        case BTreePageId.ROOT_PTR:
+            return new BTreeRootPtrPage(pid, data);
+        case BTreePageId.INTERNAL:
+            return new BTreeInternalPage(pid, data);
+        case BTreePageId.LEAF:
+            return new BTreeLeafPage(pid, data);
+        case BTreePageId.HEADER:
+            return new BTreeHeaderPage(pid, data);
+        default:
+            throw new IOException("Unknown category of page " + pid);
+        }
+    }
+
+    /** @return the BTreeFile that page pid belongs to, from the catalog */
+    static BTreeFile fileOf(BTreePageId pid) {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(f instanceof BTreeFile)) {
+            throw new IllegalArgumentException("Table " + pid.getTableId() + " is not a BTreeFile");
+        }
+        return (BTreeFile) f;
+    }
+
+    protected BTreePage parse(byte[] data) throws IOException {
+        return create(pid, data);
+    }
+
+    /** Reads a field of type t from bb. */
+    protected static Field readField(Type t, ByteBuffer bb) throws IOException {
+        try {
+            return t.parse(bb);
+        } catch (java.text.ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Fails if data is not a full page. */
+    protected static ByteBuffer wrap(BTreePageId pid, byte[] data) throws IOException {
+        if (data.length < BufferPool.getPageSize()) {
+            throw new IOException("Page " + pid + " has only " + data.length + " bytes");
+        }
+        return ByteBuffer.wrap(data);
+    }
+}
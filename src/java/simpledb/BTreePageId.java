@@ -0,0 +1,31 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a BTreeFile, whose category is one of
+ * ROOT_PTR, INTERNAL, LEAF and HEADER.
+ */
+public class BTreePageId extends IndexPageId {
+
+    public static final int ROOT_PTR = 0;
+    public static final int INTERNAL = 1;
+    public static final int LEAF = 2;
+    public static final int HEADER = 3;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pageNo The page number in that table.
+     * @param pgcateg The category of the page, one of ROOT_PTR, INTERNAL,
+     *                LEAF and HEADER
+     */
+    public BTreePageId(int tableId, int pageNo, int pgcateg) {
+        super(tableId, pageNo, pgcateg);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("table(%d)page(%d)categ(%d)", getTableId(), getPageNumber(), pgcateg());
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeRootPtrPage is page 0 of every BTreeFile. It points to the root of
+ * the tree and to the first header page. A page number of 0 means there is
+ * no such page yet, so an all-zero page describes an empty tree.
+ * <p>
+ * The format is the root page number and category, then the number of the
+ * first header page.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int rootPgNo;
+    private int rootCategory;
+    private int headerPgNo;
+
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        super(id);
+        ByteBuffer bb = wrap(id, data);
+        rootPgNo = bb.getInt();
+        rootCategory = bb.get();
+        headerPgNo = bb.getInt();
+    }
+
+    /** @return the id of the root page, or null if the tree is empty */
+    public BTreePageId getRootId() {
+        return rootPgNo == 0 ? null : new BTreePageId(pid.getTableId(), rootPgNo, rootCategory);
+    }
+
+    /** Makes root the root of the tree. */
+    public void setRootId(BTreePageId root) {
+        beforeModify();
+        rootPgNo = root.getPageNumber();
+        rootCategory = root.pgcateg();
+    }
+
+    /** @return the id of the first header page, or null if there is none */
+    public BTreePageId getHeaderId() {
+        return headerPgNo == 0 ? null : new BTreePageId(pid.getTableId(), headerPgNo, BTreePageId.HEADER);
+    }
+
+    public void setHeaderId(BTreePageId header) {
+        beforeModify();
+        headerPgNo = header.getPageNumber();
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(rootPgNo);
+        out.writeByte(rootCategory);
+        out.writeInt(headerPgNo);
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BackgroundWriter writes committed dirty pages of a BufferPool to disk on
+ * its own thread, so that neither the committing transaction nor a later
+ * getPage miss has to wait for the write.
+ * <p>
+ * When a transaction commits, its dirty pages are logged and queued here
+ * instead of being written (NO FORCE). The writer sleeps until more than
+ * {@code highWatermark} pages are queued and then writes until at most
+ * {@code lowWatermark} remain; when it wakes up on its own after
+ * {@code intervalMillis}, it trickles out whatever is queued. Each batch is
+ * written in (table, page number) order, so pages of a file are written
+ * front to back.
+ * <p>
+ * A page locked by a running transaction can't be written. When a batch
+ * writes nothing because of that, the writer sleeps until a page is queued,
+ * a transaction releases its locks, or {@code intervalMillis} pass, rather
+ * than retrying the same pages right away.
+ * <p>
+ * Only pages whose latest changes are committed are ever queued, so the
+ * writer never puts uncommitted data on disk (NO STEAL).
+ *
+ * @Threadsafe
+ */
+class BackgroundWriter implements Runnable {
+
+    private final BufferPool pool;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final long intervalMillis;
+
+    /** Committed dirty pages, mapped to the transaction that committed them. */
+    private final Map<PageId, TransactionId> queued = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean stopped = false;
+    /** Set when the last batch wrote nothing, because its pages were locked. */
+    private boolean stalled = false;  // guarded by this
+    /** Set by a wake-up, so that one arriving while the writer writes isn't lost. */
+    private boolean signalled = false;  // guarded by this
+
+    /**
+     * @param pool the pool whose pages to write
+     * @param highWatermark the number of queued pages that wakes the writer up
+     * @param lowWatermark the number of queued pages the writer stops at
+     * @param intervalMillis how long the writer sleeps before trickling out
+     *                       queued pages below the high watermark
+     */
+    BackgroundWriter(BufferPool pool, int highWatermark, int lowWatermark, long intervalMillis) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Bad watermarks: low " + lowWatermark
+                    + ", high " + highWatermark);
+        }
+        this.pool = pool;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.intervalMillis = intervalMillis;
+        thread = new Thread(this, "simpledb-background-writer");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread and writes the pages still queued, except those
+     * locked by running transactions.
+     */
+    void shutdown() {
+        stopped = true;
+        signal();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeBatch(0);
+    }
+
+    /** Queues pid, whose changes have been committed by tid. */
+    void enqueue(PageId pid, TransactionId tid) {
+        queued.put(pid, tid);
+        if (queued.size() > highWatermark) {
+            signal();
+        }
+    }
+
+    /**
+     * Makes the writer trickle out everything queued now, e.g. so that a
+     * checkpoint's dirty page table gets written.
+     */
+    void wakeUp() {
+        signal();
+    }
+
+    /**
+     * Tells the writer that a transaction has released its locks, so pages
+     * it couldn't write before may be writable now.
+     */
+    synchronized void locksReleased() {
+        if (stalled) {
+            signal();
+        }
+    }
+
+    private synchronized void signal() {
+        signalled = true;
+        notifyAll();
+    }
+
+    /** @return the transaction whose committed changes to pid are queued, or null */
+    TransactionId committer(PageId pid) {
+        return queued.get(pid);
+    }
+
+    /** Forgets pid, once its changes have reached disk. */
+    void written(PageId pid) {
+        queued.remove(pid);
+    }
+
+    /** @return the number of queued pages */
+    int size() {
+        return queued.size();
+    }
+
+    /**
+     * Writes queued pages until at most target remain, in (table, page
+     * number) order.
+     *
+     * @return the number of pages written, skipping those that are locked
+     */
+    int writeBatch(int target) {
+        List<PageId> batch = new ArrayList<>(queued.keySet());
+        Collections.sort(batch, (a, b) -> {
+            int c = Integer.compare(a.getTableId(), b.getTableId());
+            return c != 0 ? c : Integer.compare(a.getPageNumber(), b.getPageNumber());
+        });
+        int written = 0;
+        for (PageId pid : batch) {
+            if (queued.size() <= target) {
+                break;
+            }
+            TransactionId tid = queued.get(pid);
+            try {
+                if (tid != null && pool.writeBack(pid, tid)) {
+                    written++;
+                }
+            } catch (IOException e) {
+                // leave the page queued; eviction or the next batch retries
+                e.printStackTrace();
+            }
+        }
+        return written;
+    }
+
+    public void run() {
+        while (!stopped) {
+            boolean full;
+            synchronized (this) {
+                if (!signalled && (stalled || queued.size() <= highWatermark)) {
+                    try {
+                        wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                signalled = false;
+                full = queued.size() > highWatermark;
+            }
+            if (!stopped) {
+                int target = full ? lowWatermark : 0;
+                boolean stuck = writeBatch(target) == 0 && queued.size() > target;
+                synchronized (this) {
+                    stalled = stuck;
+                }
+            }
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package simpledb;
 
-import javax.xml.crypto.Data;
 import java.io.*;
 
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -31,20 +32,119 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private final Map<PageId, Page> pageMap;
+    /** System property that selects the page replacement policy, see {@link #createPolicy}. */
+    public static final String POLICY_PROPERTY = "simpledb.BufferPool.policy";
+
+    /**
+     * System property that, if "true", makes commits NO FORCE: committed
+     * pages are logged and then written by a background thread.
+     */
+    public static final String WRITER_PROPERTY = "simpledb.BufferPool.writer";
+    /** Number of queued committed pages, as a fraction of the pool size, that wakes the writer up. */
+    public static final String HIGH_WATERMARK_PROPERTY = "simpledb.BufferPool.writer.high";
+    /** Number of queued committed pages, as a fraction of the pool size, the writer stops at. */
+    public static final String LOW_WATERMARK_PROPERTY = "simpledb.BufferPool.writer.low";
+    /** Milliseconds after which the idle writer trickles out queued pages. */
+    public static final String INTERVAL_PROPERTY = "simpledb.BufferPool.writer.interval";
+
+    private final PageTable pageTable;
     private final int maxPage;
+    private final ReplacementPolicy policy;
+    private final Object evictionLock = new Object();
+    private final LockManager lockManager = new LockManager();
+    private final BackgroundWriter writer;  // null for FORCE commits
+    /** Before images of the pages each transaction wrote around the cache. */
+    private final Map<TransactionId, List<Page>> directWrites = new ConcurrentHashMap<>();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * replacement policy named by the simpledb.BufferPool.policy system
+     * property (CLOCK by default), and a background writer if the
+     * simpledb.BufferPool.writer property is "true".
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
         // some code goes here
-        pageMap = new LinkedHashMap<>(numPages * 2, 0.75f, true);
+        this(numPages, createPolicy(System.getProperty(POLICY_PROPERTY, "clock"), numPages),
+                Boolean.getBoolean(WRITER_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the specified policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * according to the specified policy.
+     * <p>
+     * With a background writer, committing a transaction only logs its
+     * dirty pages; they are written to disk later, by the writer thread or
+     * when they are evicted. The writer's watermarks are read from the
+     * simpledb.BufferPool.writer.high and .low properties (by default half
+     * and a quarter of the pool).
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the page replacement policy.
+     * @param backgroundWriter whether to write committed pages in the background
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, boolean backgroundWriter) {
+        pageTable = new PageTable(4 * Runtime.getRuntime().availableProcessors());
         maxPage = numPages;
+        this.policy = policy;
+        if (backgroundWriter) {
+            int high = (int) (numPages * Double.parseDouble(System.getProperty(HIGH_WATERMARK_PROPERTY, "0.5")));
+            int low = (int) (numPages * Double.parseDouble(System.getProperty(LOW_WATERMARK_PROPERTY, "0.25")));
+            writer = new BackgroundWriter(this, high, low, Long.getLong(INTERVAL_PROPERTY, 100));
+            writer.start();
+        } else {
+            writer = null;
+        }
+    }
+
+    /** Stops the background writer, if any, after it has written the pages it has queued. */
+    public void shutdown() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    /** @return the background writer, or null if commits are FORCE */
+    BackgroundWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Creates the named replacement policy for a pool of numPages pages.
+     *
+     * @param name "clock", "lru-k" (LRU-2) or "2q"
+     * @throws IllegalArgumentException if name is not a known policy
+     */
+    public static ReplacementPolicy createPolicy(String name, int numPages) {
+        switch (name.toLowerCase()) {
+        case "clock":
+            return new ClockPolicy(numPages);
+        case "lru-k":
+            return new LruKPolicy(LruKPolicy.DEFAULT_K);
+        case "2q":
+            return new TwoQueuePolicy(numPages);
+        default:
+            throw new IllegalArgumentException("Unknown replacement policy: " + name);
+        }
     }
     
+    /** @return the lock manager guarding the pages of this pool */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -70,22 +170,56 @@ public class BufferPool {
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
      *
+     * <p>
+     * READ_WRITE requests take an exclusive lock on the page, others a
+     * shared lock. A null tid takes no lock, which is only safe when no
+     * transaction can be modifying the page, e.g. when computing statistics
+     * at startup.
+     *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would deadlock
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (pageMap.containsKey(pid)) {
-            return pageMap.get(pid);
-        } else {
-            if (pageMap.size() == maxPage) {
-                evictPage();
+        if (tid != null) {
+            lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+        }
+        PageTable.Frame frame = pageTable.pin(pid);
+        try {
+            if (frame.claimLoad()) {
+                // we are the first to miss on this page; everyone else who
+                // misses on it waits for our read in awaitPage()
+                try {
+                    while (pageTable.size() > maxPage) {
+                        evictPage();
+                    }
+                    frame.setPage(Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid));
+                } catch (DbException | RuntimeException e) {
+                    pageTable.remove(frame);
+                    frame.loadFailed();
+                    throw e;
+                }
+                policy.pageLoaded(pid);
+            } else {
+                policy.pageAccessed(pid);
             }
-            Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            pageMap.put(pid, page);
-            return page;
+            return frame.awaitPage();
+        } finally {
+            frame.unpin();
+        }
+    }
+
+    /** Add page to the pool, or replace the cached version of it. */
+    private void cachePage(Page page) {
+        PageTable.Frame frame = pageTable.pin(page.getId());
+        boolean loaded = frame.claimLoad();
+        frame.setPage(page);
+        frame.unpin();
+        if (loaded) {
+            policy.pageLoaded(page.getId());
         }
     }
 
@@ -101,6 +235,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -111,18 +246,27 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit the pages the transaction dirtied are written to disk
+     * (FORCE), or logged and queued for the background writer (NO FORCE).
+     * On abort they are reverted to their last committed version: pages
+     * whose committed changes are still queued are rolled back to their
+     * before image, the others are dropped from the pool, so the next
+     * access reads them back from disk. Since only committed changes are
+     * ever written, that is the version on disk (NO STEAL).
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -131,6 +275,54 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        try {
+            List<Page> written = directWrites.remove(tid);
+            if (commit) {
+                flushPages(tid);
+            } else {
+                if (written != null) {
+                    for (Page before : written) {
+                        Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                        discardPage(before.getId());
+                    }
+                }
+                // a page can only have been dirtied under an exclusive lock
+                for (PageId pid : lockManager.lockedPages(tid)) {
+                    PageTable.Frame frame = pageTable.get(pid);
+                    Page page = frame == null ? null : frame.page();
+                    if (page == null || !tid.equals(page.isDirty())) {
+                        continue;
+                    }
+                    TransactionId committer = writer == null ? null : writer.committer(pid);
+                    if (committer != null) {
+                        Page committed = page.getBeforeImage();
+                        committed.markDirty(true, committer);
+                        cachePage(committed);
+                    } else {
+                        discardPage(pid);
+                    }
+                }
+            }
+        } finally {
+            lockManager.releaseAll(tid);
+            if (writer != null) {
+                writer.locksReleased();
+            }
+        }
+    }
+
+    /**
+     * Tells the pool that tid has written pages straight to disk, without
+     * caching them, as {@link HeapFile.BulkAppender} does. The pages must be
+     * locked exclusively by tid. If tid aborts, their before images are
+     * written back.
+     *
+     * @param tid the transaction that wrote the pages
+     * @param beforeImages the contents of the pages before tid wrote them
+     */
+    public void pagesWritten(TransactionId tid, List<Page> beforeImages) {
+        directWrites.computeIfAbsent(tid, t -> Collections.synchronizedList(new ArrayList<Page>()))
+                .addAll(beforeImages);
     }
 
     /**
@@ -155,7 +347,24 @@ public class BufferPool {
         List<Page> pages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
         for (Page page : pages) {
             page.markDirty(true, tid);
-            pageMap.put(page.getId(), page);
+            cachePage(page);
+        }
+        updateIndexes(tid, tableId, t, true);
+    }
+
+    /**
+     * Adds the entry of t, which has just been inserted into or is about to be
+     * deleted from table tableId, to each index of the table, or removes it.
+     */
+    void updateIndexes(TransactionId tid, int tableId, Tuple t, boolean insert)
+        throws DbException, IOException, TransactionAbortedException {
+        for (HashIndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            Tuple entry = index.entryOf(t);
+            List<Page> pages = insert ? index.insertTuple(tid, entry) : index.deleteTuple(tid, entry);
+            for (Page page : pages) {
+                page.markDirty(true, tid);
+                cachePage(page);
+            }
         }
     }
 
@@ -176,10 +385,12 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        List<Page> pages = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId()).deleteTuple(tid, t);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        updateIndexes(tid, tableId, t, false);
+        List<Page> pages = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
         for (Page page : pages) {
             page.markDirty(true, tid);
-            pageMap.put(page.getId(), page);
+            cachePage(page);
         }
     }
 
@@ -188,10 +399,12 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        for (PageTable.Frame frame : pageTable.frames()) {
+            flushPage(frame.pid);
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -202,47 +415,189 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pageMap.remove(pid);
+        if (pageTable.remove(pid) != null) {
+            policy.pageRemoved(pid);
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk. The update is logged, and the log
+     * forced, before the page is written.
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        Page page = pageMap.get(pid);
-        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-        page.markDirty(false, null);
+        PageTable.Frame frame = pageTable.pinIfPresent(pid);
+        if (frame == null) {
+            return;
+        }
+        try {
+            Page page = frame.page();
+            TransactionId dirtier = page == null ? null : page.isDirty();
+            if (dirtier != null) {
+                Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+                Database.getLogFile().force();
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                Database.getLogFile().pageWritten(pid);
+                page.markDirty(false, null);
+                if (writer != null) {
+                    writer.written(pid);
+                }
+            }
+        } finally {
+            frame.unpin();
+        }
+    }
+
+    /**
+     * Writes pid, whose committed changes by tid are queued for the
+     * background writer, unless it has been changed since. Takes a shared
+     * lock on the page for the duration of the write, so the page can't be
+     * modified while it is written, but never waits for it.
+     *
+     * @return true if the page was written or doesn't need to be anymore,
+     *         false if it is locked by a writing transaction
+     */
+    boolean writeBack(PageId pid, TransactionId tid) throws IOException {
+        TransactionId writerTid = new TransactionId();
+        if (!lockManager.tryAcquire(writerTid, pid, false)) {
+            return false;
+        }
+        PageTable.Frame frame = pageTable.pinIfPresent(pid);
+        try {
+            Page page = frame == null ? null : frame.page();
+            if (page != null && tid.equals(page.isDirty())) {
+                // the update was logged at commit
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+                Database.getLogFile().pageWritten(pid);
+                page.markDirty(false, null);
+            }
+            if (tid.equals(writer.committer(pid))) {
+                writer.written(pid);
+            }
+            return true;
+        } finally {
+            if (frame != null) {
+                frame.unpin();
+            }
+            lockManager.release(writerTid, pid);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
+     * With a background writer, the pages are only logged, and queued for
+     * the writer.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Set<PageId> pages = lockManager.lockedPages(tid);
+        if (writer != null) {
+            queuePages(tid, pages);
+            return;
+        }
+        for (PageId pid : pages) {
+            flushPage(pid);
+            // the committed contents are the before image of the next update
+            PageTable.Frame frame = pageTable.get(pid);
+            Page page = frame == null ? null : frame.page();
+            if (page != null) {
+                page.setBeforeImage();
+            }
+        }
+    }
+
+    /** Logs the pages tid dirtied and hands them to the background writer. */
+    private void queuePages(TransactionId tid, Set<PageId> pages) throws IOException {
+        List<Page> dirtied = new ArrayList<>();
+        for (PageId pid : pages) {
+            PageTable.Frame frame = pageTable.get(pid);
+            Page page = frame == null ? null : frame.page();
+            // pages already queued by tid were queued by an earlier call
+            if (page != null && tid.equals(page.isDirty()) && !tid.equals(writer.committer(pid))) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                dirtied.add(page);
+            }
+        }
+        if (dirtied.isEmpty()) {
+            return;
+        }
+        Database.getLogFile().force();
+        for (Page page : dirtied) {
+            page.setBeforeImage();
+            writer.enqueue(page.getId(), tid);
+        }
+    }
+
+    /** @return true if page is loaded and holds no uncommitted changes */
+    private boolean isEvictable(Page page) {
+        if (page == null) {
+            return false;
+        }
+        TransactionId dirtier = page.isDirty();
+        return dirtier == null || (writer != null && dirtier.equals(writer.committer(page.getId())));
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the replacement policy among the clean pages
+     * and the pages queued for the background writer, which are written
+     * first. Pages with uncommitted changes are never evicted, so those
+     * changes never reach disk (NO STEAL), and neither are queued pages
+     * that a running transaction holds an exclusive lock on.
+     *
+     * @throws DbException if every page in the pool has uncommitted changes,
+     *         or is pinned or locked
      */
-    private synchronized void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        try {
-            // Remove the least recently accessed 1 page
-            for (PageId pid : pageMap.keySet()) {
-                flushPage(pid);
-                discardPage(pid);
-                return;
+        synchronized (evictionLock) {
+            // queued pages whose lock writeBack couldn't get in this call
+            Set<PageId> locked = new HashSet<>();
+            while (true) {
+                PageId victim = policy.chooseVictim(pid -> {
+                    PageTable.Frame frame = pageTable.get(pid);
+                    // a page the policy still knows but the pool doesn't is
+                    // a leftover from a concurrent discard; let it be chosen
+                    // so it is cleaned up below
+                    return frame == null || (!frame.isPinned() && !locked.contains(pid)
+                            && isEvictable(frame.page()));
+                });
+                if (victim == null) {
+                    throw new DbException("All " + pageTable.size()
+                            + " pages in the buffer pool are dirty or pinned.");
+                }
+                PageTable.Frame frame = pageTable.get(victim);
+                if (frame == null) {
+                    policy.pageRemoved(victim);
+                    continue;
+                }
+                Page page = frame.page();
+                if (page != null && page.isDirty() != null && isEvictable(page)) {
+                    // committed but not yet written: write it ourselves
+                    try {
+                        if (!writeBack(victim, page.isDirty())) {
+                            locked.add(victim);
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        throw new DbException("Failed to write page " + victim + ": " + e);
+                    }
+                }
+                // re-check under the partition lock; someone may have pinned
+                // or dirtied it since the policy looked at it
+                if (frame.page() != null && frame.page().isDirty() == null
+                        && pageTable.removeIfUnpinned(frame)) {
+                    policy.pageRemoved(victim);
+                    return;
+                }
+                Thread.yield();
             }
-        } catch (IOException e) {
-            throw new DbException(e.toString());
         }
     }
 
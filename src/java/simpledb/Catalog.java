@@ -21,12 +21,14 @@ public class Catalog {
     private Map<Integer, String> id2Name;  // 2 ids might map to the same name
     private Map<Integer, DbFile> id2File;
     private Map<Integer, String> id2Pkey;
+    private Map<Integer, List<HashIndexFile>> id2Indexes;  // indexes of each table
 
     private void initCatalog() {
         name2Id = new HashMap<>();
         id2Name = new HashMap<>();
         id2File = new HashMap<>();
         id2Pkey = new HashMap<>();
+        id2Indexes = new HashMap<>();
     }
 
     /**
@@ -73,6 +75,24 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Add a hash index to the catalog. The index is a table of its own, named
+     * name, and is kept up to date by the BufferPool as tuples are inserted
+     * into and deleted from the table it indexes.
+     * @param index the index to add; its table must already be in the catalog
+     * @param name the name of the index
+     */
+    public void addIndex(HashIndexFile index, String name) {
+        addTable(index, name);
+        id2Indexes.computeIfAbsent(index.getTableId(), id -> new ArrayList<>()).add(index);
+    }
+
+    /** @return the hash indexes of the specified table, possibly none */
+    public List<HashIndexFile> getIndexes(int tableid) {
+        List<HashIndexFile> indexes = id2Indexes.get(tableid);
+        return indexes == null ? Collections.<HashIndexFile>emptyList() : indexes;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -139,6 +159,8 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A field may be annotated "pk" to make it the primary key, and "index"
+     * to store the table in a BTreeFile sorted on it.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -156,6 +178,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                int indexField = -1;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -167,11 +190,13 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexField = names.size() - 1;
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -179,7 +204,9 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                // a table with an indexed field is stored in a B+ tree on it
+                DbFile tabHf = indexField < 0 ? new HeapFile(dataFile, t) : new BTreeFile(dataFile, indexField, t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
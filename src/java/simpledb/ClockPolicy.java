@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) replacement. Frames are arranged in a circle with a
+ * reference bit each; a hit only sets the bit, so no list is reordered on the
+ * hit path. To find a victim the clock hand sweeps the circle, clearing set
+ * bits and stopping at the first evictable frame whose bit is already clear.
+ * Victim selection is O(1) amortized.
+ * <p>
+ * Hits don't take the policy's lock: the frame is looked up in a concurrent
+ * map and its bit set atomically. A hit that races with the eviction of its
+ * page at worst sets the bit of whatever page takes over the frame.
+ *
+ * @Threadsafe
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private volatile AtomicIntegerArray referenced;
+    private final Map<PageId, Integer> frameOf = new ConcurrentHashMap<>();
+    private final ArrayDeque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand = 0;
+
+    /**
+     * @param numPages the expected number of frames; the clock grows if the
+     *                 pool ever holds more pages than that
+     */
+    public ClockPolicy(int numPages) {
+        frames = new PageId[Math.max(1, numPages)];
+        referenced = new AtomicIntegerArray(frames.length);
+        for (int i = 0; i < frames.length; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    @Override
+    public synchronized void pageLoaded(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            if (freeFrames.isEmpty()) {
+                grow();
+            }
+            frame = freeFrames.poll();
+            frames[frame] = pid;
+            referenced.set(frame, 1);
+            frameOf.put(pid, frame);
+        } else {
+            referenced.set(frame, 1);
+        }
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null) {
+            referenced.set(frame, 1);
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced.set(frame, 0);
+            freeFrames.add(frame);
+        }
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        // after two full turns every bit has been cleared, so if nothing was
+        // found by then no frame is evictable
+        for (int i = 0; i < 2 * frames.length; i++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.getAndSet(frame, 0) != 0) {
+                continue;
+            }
+            if (evictable.isEvictable(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void grow() {
+        int oldLen = frames.length;
+        frames = Arrays.copyOf(frames, oldLen * 2);
+        AtomicIntegerArray bits = new AtomicIntegerArray(oldLen * 2);
+        for (int i = 0; i < oldLen; i++) {
+            bits.set(i, referenced.get(i));
+        }
+        referenced = bits;
+        for (int i = oldLen; i < frames.length; i++) {
+            freeFrames.add(i);
+        }
+    }
+}
@@ -17,6 +17,7 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final FileChannelPool _channelpool;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -24,6 +25,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _channelpool = new FileChannelPool();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -45,6 +47,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the pool of open data file channels of the static Database instance */
+    public static FileChannelPool getFileChannelPool() {
+        return _instance.get()._channelpool;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -56,6 +63,7 @@ public class Database {
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        _instance.get()._bufferpool.shutdown();
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
@@ -75,7 +83,13 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
+        // the old pool's writer still needs the old catalog to write back
+        // queued pages, so shut it down before swapping the instance
+        Database old = _instance.get();
+        old._bufferpool.shutdown();
+        old._logfile.close();
         _instance.set(new Database());
+        old._channelpool.closeAll();
     }
 
 }
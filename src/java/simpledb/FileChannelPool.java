@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FileChannelPool keeps a bounded set of long-lived FileChannels open so that
+ * DbFiles don't have to open and close the backing file on every page read
+ * or write.
+ * <p>
+ * Channels are handed out with {@link #acquire} and must be given back with
+ * {@link #release}. All page I/O goes through the positional
+ * {@link FileChannel#read(ByteBuffer, long)} and
+ * {@link FileChannel#write(ByteBuffer, long)} calls, which don't touch the
+ * channel position and can therefore be issued by many threads on the same
+ * channel at once. When more than maxOpen files are open, the least recently
+ * used channel that nobody is currently using is closed.
+ *
+ * @Threadsafe
+ */
+public class FileChannelPool {
+
+    /** Default maximum number of channels kept open at once. */
+    public static final int DEFAULT_MAX_OPEN = 64;
+
+    private static class PooledChannel {
+        final FileChannel channel;
+        int users;
+
+        PooledChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final int maxOpen;
+    // Access-ordered so that the eldest entry is the least recently used one
+    private final LinkedHashMap<File, PooledChannel> channels;
+
+    /**
+     * Creates a pool that keeps at most maxOpen idle channels open.
+     *
+     * @param maxOpen maximum number of open channels.
+     */
+    public FileChannelPool(int maxOpen) {
+        if (maxOpen <= 0) {
+            throw new IllegalArgumentException("maxOpen must be positive: " + maxOpen);
+        }
+        this.maxOpen = maxOpen;
+        this.channels = new LinkedHashMap<>(maxOpen * 2, 0.75f, true);
+    }
+
+    public FileChannelPool() {
+        this(DEFAULT_MAX_OPEN);
+    }
+
+    /**
+     * Returns an open channel for the specified file, opening it if needed.
+     * Every call must be matched by a call to {@link #release}.
+     */
+    public synchronized FileChannel acquire(File f) throws IOException {
+        File key = f.getAbsoluteFile();
+        PooledChannel pc = channels.get(key);
+        if (pc == null || !pc.channel.isOpen()) {
+            pc = new PooledChannel(open(key));
+            channels.put(key, pc);
+            closeIdleChannels();
+        }
+        pc.users++;
+        return pc.channel;
+    }
+
+    /** Gives back a channel obtained from {@link #acquire}. */
+    public synchronized void release(File f) {
+        PooledChannel pc = channels.get(f.getAbsoluteFile());
+        if (pc != null && pc.users > 0) {
+            pc.users--;
+        }
+        closeIdleChannels();
+    }
+
+    /**
+     * Reads from the file into dst starting at the given file position, until
+     * dst is full or the end of the file is reached.
+     *
+     * @return the number of bytes read.
+     */
+    public int read(File f, ByteBuffer dst, long position) throws IOException {
+        FileChannel channel = acquire(f);
+        try {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, position + total);
+                if (n < 0) {
+                    break;
+                }
+                total += n;
+            }
+            return total;
+        } finally {
+            release(f);
+        }
+    }
+
+    /**
+     * Writes all of src into the file starting at the given file position,
+     * extending the file if needed.
+     */
+    public void write(File f, ByteBuffer src, long position) throws IOException {
+        FileChannel channel = acquire(f);
+        try {
+            long pos = position;
+            while (src.hasRemaining()) {
+                pos += channel.write(src, pos);
+            }
+        } finally {
+            release(f);
+        }
+    }
+
+    /** Closes the channel of the specified file, if it is open. */
+    public synchronized void close(File f) throws IOException {
+        PooledChannel pc = channels.remove(f.getAbsoluteFile());
+        if (pc != null) {
+            pc.channel.close();
+        }
+    }
+
+    /** Closes every channel in the pool. */
+    public synchronized void closeAll() {
+        for (PooledChannel pc : channels.values()) {
+            try {
+                pc.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        channels.clear();
+    }
+
+    /** @return the number of channels currently open. */
+    public synchronized int numOpen() {
+        return channels.size();
+    }
+
+    private void closeIdleChannels() {
+        Iterator<Map.Entry<File, PooledChannel>> it = channels.entrySet().iterator();
+        while (channels.size() > maxOpen && it.hasNext()) {
+            PooledChannel pc = it.next().getValue();
+            if (pc.users == 0) {
+                it.remove();
+                try {
+                    pc.channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static FileChannel open(File f) throws IOException {
+        try {
+            return new RandomAccessFile(f, "rw").getChannel();
+        } catch (FileNotFoundException e) {
+            // fall back to read-only access, e.g. for files on a read-only mount
+            if (!f.exists()) {
+                throw e;
+            }
+            return new RandomAccessFile(f, "r").getChannel();
+        }
+    }
+}
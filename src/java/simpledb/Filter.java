@@ -43,6 +43,10 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        if (child instanceof SeqScan) {
+            // let the scan skip rejected tuples without decoding them
+            ((SeqScan) child).setPredicate(predicate);
+        }
         child.open();
         super.open();
     }
@@ -0,0 +1,42 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have an empty slot, one
+ * bit per page, so an insert can go straight to a page with room instead of
+ * reading every page of the file.
+ * <p>
+ * The map is a hint, kept in memory only and rebuilt as pages are used: when
+ * it is created every page is assumed to have room, a bit is cleared when its
+ * page is found to be full and set again when a tuple is deleted from the page
+ * or the page is read from disk with an empty slot. A page whose bit is set
+ * may turn out to be full, so callers must still check the page itself.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private final BitSet hasRoom = new BitSet();
+
+    /**
+     * @param numPages the number of pages in the file; all of them are
+     *                 assumed to have room until they are found to be full
+     */
+    FreeSpaceMap(int numPages) {
+        hasRoom.set(0, numPages);
+    }
+
+    /**
+     * @return the number of the first page at or after from that may have
+     *         room, or -1 if there is none
+     */
+    synchronized int nextWithRoom(int from) {
+        return hasRoom.nextSetBit(from);
+    }
+
+    /** Records whether page pageNo has an empty slot. */
+    synchronized void setHasRoom(int pageNo, boolean room) {
+        hasRoom.set(pageNo, room);
+    }
+}
@@ -1,23 +1,59 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join as a hybrid hash
+ * join. The tuples of child1, the build side, are loaded into a hash table on
+ * their join field, and each tuple of child2, the probe side, looks up its
+ * matches there.
+ * <p>
+ * When child1 doesn't fit in the memory budget, its tuples are split into
+ * partitions by the hash of the join field. The first partition stays in
+ * memory and the others are spilled to {@link SpillFile}s, as are the tuples
+ * of child2 that fall into a spilled partition. Once child2 is done, each
+ * pair of spilled partitions is joined in turn by a HashEquiJoin that
+ * partitions again, with another hash, if its build side still doesn't fit.
+ * Either way each child is read once, and a spilled tuple is written and read
+ * back once per level of partitioning.
+ * <p>
+ * Partitioning can't split up a key with more tuples than fit in memory, so
+ * after {@link SpillFile#MAX_LEVELS} levels the build side is joined in
+ * chunks that fit, each of which reads the probe side again.
+ * <p>
+ * The hash table keeps the build tuples in an array, each chained to the
+ * previous tuple with the same key. The head of each chain is found in an
+ * {@link IntKeyHashTable} for INT_TYPE keys, and in a HashMap otherwise.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
+
     private JoinPredicate pred;
     private OpIterator child1, child2;
     private TupleDesc comboTD;
+    private final int memoryPages;
+    private final int level;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    transient private IntKeyHashTable intHeads;  // for INT_TYPE keys
+    transient private HashMap<Field, Integer> heads;  // for other keys
+    transient private Tuple[] tuples;  // the build tuples in memory
+    transient private int[] next;  // the previous tuple with the same key, or -1
+    transient private int mapSize;
+    transient private int match = -1;  // the next build tuple that matches t2
+    transient private boolean chunked;  // child1 is read a chunk at a time
+    transient private int numPartitions;  // 0 while child1 fits in memory
+    transient private SpillFile[] buildSpills, probeSpills;  // null for partitions in memory
+    transient private int partition;  // the spilled partition partJoin joins
+    transient private HashEquiJoin partJoin;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -26,9 +62,26 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, SpillFile.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryPages
+     *            the number of pages of child1 tuples to keep in memory
+     * @see #HashEquiJoin(JoinPredicate, OpIterator, OpIterator)
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryPages) {
+        this(p, child1, child2, memoryPages, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryPages, int level) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryPages = Math.max(1, memoryPages);
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -39,7 +92,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -49,33 +102,131 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
-
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+
+    /** @return the number of child1 tuples that fit in the memory budget */
+    private int budget() {
+        return SpillFile.fitInPages(memoryPages, child1.getTupleDesc().getSize());
+    }
+
+    /** @return the partition of key; every level uses another hash */
+    private int partitionOf(Field key) {
+        return Math.floorMod(Utility.mixHash(key.hashCode() + level * 0x9e3779b9), numPartitions);
+    }
+
+    /** Empties the hash table. */
+    private void clearTable() {
+        if (intHeads != null) {
+            intHeads.clear();
+        } else {
+            heads.clear();
+        }
+        Arrays.fill(tuples, 0, mapSize, null);
+        mapSize = 0;
+    }
+
+    /** Adds t to the hash table, as the head of the chain of its key. */
+    private void addToTable(Tuple t) {
+        if (mapSize == tuples.length) {
+            tuples = Arrays.copyOf(tuples, 2 * mapSize);
+            next = Arrays.copyOf(next, 2 * mapSize);
+        }
+        Field key = t.getField(pred.getField1());
+        int prev;
+        if (intHeads != null) {
+            prev = intHeads.put(((IntField) key).getValue(), mapSize);
+        } else {
+            Integer head = heads.put(key, mapSize);
+            prev = head == null ? -1 : head;
+        }
+        tuples[mapSize] = t;
+        next[mapSize] = prev;
+        mapSize++;
+    }
+
+    /** @return the last build tuple with key, or -1 if there is none */
+    private int firstMatch(Field key) {
+        if (intHeads != null) {
+            return key instanceof IntField ? intHeads.get(((IntField) key).getValue()) : -1;
+        }
+        Integer head = heads.get(key);
+        return head == null ? -1 : head;
+    }
+
+    /**
+     * Reads child1 into the hash table, spilling partitions as it fills up,
+     * or up to a full table of tuples if the join has run out of levels.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        int budget = budget();
+        try {
+            while (child1.hasNext()) {
+                t1 = child1.next();
+                Field key = t1.getField(pred.getField1());
+                if (numPartitions > 0 && buildSpills[partitionOf(key)] != null) {
+                    buildSpills[partitionOf(key)].add(t1);
+                    continue;
+                }
+                addToTable(t1);
+                if (mapSize >= budget) {
+                    if (level >= SpillFile.MAX_LEVELS) {
+                        chunked = true;
+                        return;
+                    }
+                    spill();
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+        } catch (IOException e) {
+            throw new DbException(e.toString());
         }
-        return cnt > 0;
+    }
 
+    /**
+     * Moves partitions out of the hash table: the first time all but the
+     * first partition, after that the first one too.
+     */
+    private void spill() throws IOException {
+        if (numPartitions == 0) {
+            numPartitions = SpillFile.numPartitions(memoryPages);
+            buildSpills = new SpillFile[numPartitions];
+            probeSpills = new SpillFile[numPartitions];
+            for (int p = 1; p < numPartitions; p++) {
+                buildSpills[p] = new SpillFile(child1.getTupleDesc());
+                probeSpills[p] = new SpillFile(child2.getTupleDesc());
+            }
+        } else {
+            buildSpills[0] = new SpillFile(child1.getTupleDesc());
+            probeSpills[0] = new SpillFile(child2.getTupleDesc());
+        }
+        // rebuild the table from the tuples that stay in memory
+        Tuple[] old = Arrays.copyOf(tuples, mapSize);
+        clearTable();
+        for (Tuple t : old) {
+            SpillFile spill = buildSpills[partitionOf(t.getField(pred.getField1()))];
+            if (spill != null) {
+                spill.add(t);
+            } else {
+                addToTable(t);
+            }
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        if (child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE) {
+            intHeads = new IntKeyHashTable();
+        } else {
+            heads = new HashMap<Field, Integer>();
+        }
+        tuples = new Tuple[16];
+        next = new int[16];
+        mapSize = 0;
+        match = -1;
+        chunked = false;
+        numPartitions = 0;
+        partition = 0;
+        build();
         super.open();
     }
 
@@ -83,18 +234,63 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
+        if (partJoin != null) {
+            partJoin.close();
+            partJoin = null;
+        }
+        for (int p = 0; p < numPartitions; p++) {
+            deletePartition(p);
+        }
+        numPartitions = 0;
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        this.match = -1;
+        this.intHeads = null;
+        this.heads = null;
+        this.tuples = null;
+        this.next = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        close();
+        open();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private void deletePartition(int p) {
+        if (buildSpills[p] != null) {
+            buildSpills[p].delete();
+            buildSpills[p] = null;
+        }
+        if (probeSpills[p] != null) {
+            probeSpills[p].delete();
+            probeSpills[p] = null;
+        }
+    }
+
+    /**
+     * Starts joining the next pair of spilled partitions that both have
+     * tuples.
+     *
+     * @return false if there are none left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (partJoin != null) {
+            partJoin.close();
+            partJoin = null;
+            deletePartition(partition++);
+        }
+        for (; partition < numPartitions; partition++) {
+            SpillFile build = buildSpills[partition];
+            if (build != null && build.size() > 0 && probeSpills[partition].size() > 0) {
+                partJoin = new HashEquiJoin(pred, build.iterator(), probeSpills[partition].iterator(),
+                        memoryPages, level + 1);
+                partJoin.open();
+                return true;
+            }
+            deletePartition(partition);
+        }
+        return false;
+    }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -110,12 +306,13 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
+        t1 = tuples[match];
+        match = next[match];
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -131,32 +328,46 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        while (true) {
+            if (match >= 0) {
+                return processList();
+            }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            // probe with child2, spilling the tuples of spilled partitions
+            if (child2.hasNext()) {
+                t2 = child2.next();
+                Field key = t2.getField(pred.getField2());
+                if (numPartitions > 0 && probeSpills[partitionOf(key)] != null) {
+                    try {
+                        probeSpills[partitionOf(key)].add(t2);
+                    } catch (IOException e) {
+                        throw new DbException(e.toString());
+                    }
+                    continue;
+                }
+                match = firstMatch(key);
                 continue;
-            listIt = l.iterator();
-
-            return processList();
+            }
 
-        }
+            // child2 is done: join the next chunk of child1 with it
+            if (chunked && child1.hasNext()) {
+                clearTable();
+                build();
+                child2.rewind();
+                continue;
+            }
+            if (mapSize > 0) {
+                clearTable();
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            // then the spilled partitions, one pair at a time
+            if (partJoin != null && partJoin.hasNext()) {
+                return partJoin.next();
+            }
+            if (!nextPartition()) {
+                return null;
+            }
         }
-
-        return null;
     }
 
     @Override
@@ -169,5 +380,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashIndexBucketPage holds entries of a HashIndexFile: a key and the
+ * RecordId of a tuple of the indexed table with that key, stored as a tuple
+ * of the entry TupleDesc of the index. A bucket is a chain of these pages,
+ * linked through their next page numbers.
+ * <p>
+ * The format is the number of the next page of the bucket (0 for none) and
+ * the number of entries, then the entries packed at the start of the page.
+ */
+public class HashIndexBucketPage extends HashIndexPage {
+
+    private final TupleDesc td;
+    private final int maxEntries;
+    private int nextPgNo;
+    private final List<Tuple> entries;
+
+    public HashIndexBucketPage(HashIndexPageId id, byte[] data) throws IOException {
+        super(id);
+        td = Database.getCatalog().getTupleDesc(id.getTableId());
+        maxEntries = maxEntries(td);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        nextPgNo = bb.getInt();
+        int n = bb.getInt();
+        if (n > maxEntries) {
+            throw new IOException("Page " + id + " claims " + n + " entries");
+        }
+        entries = new ArrayList<>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getFieldType(j).parse(bb));
+                }
+                entries.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** @return the number of entries of type td that fit on a bucket page */
+    public static int maxEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - 8) / td.getSize();
+    }
+
+    public boolean isFull() {
+        return entries.size() >= maxEntries;
+    }
+
+    public int numEntries() {
+        return entries.size();
+    }
+
+    /** @return a copy of the entries on this page */
+    public List<Tuple> entries() {
+        return new ArrayList<>(entries);
+    }
+
+    /** @return the id of the next page of the bucket, or null if this is the last */
+    public HashIndexPageId getNextId() {
+        return nextPgNo == 0 ? null : new HashIndexPageId(pid.getTableId(), nextPgNo, HashIndexPageId.BUCKET);
+    }
+
+    public void setNextId(HashIndexPageId next) {
+        beforeModify();
+        nextPgNo = next == null ? 0 : next.getPageNumber();
+    }
+
+    /**
+     * Adds entry to the page.
+     *
+     * @throws DbException if the page is full
+     */
+    public void insertEntry(Tuple entry) throws DbException {
+        if (isFull()) {
+            throw new DbException(String.format("Page %s is full.", pid));
+        }
+        beforeModify();
+        entries.add(entry);
+    }
+
+    /** @return the index of an entry with the same fields as entry, or -1 */
+    public int indexOf(Tuple entry) {
+        for (int i = 0; i < entries.size(); i++) {
+            Tuple e = entries.get(i);
+            boolean same = true;
+            for (int j = 0; j < td.numFields() && same; j++) {
+                same = e.getField(j).equals(entry.getField(j));
+            }
+            if (same) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the entry with the same fields as entry.
+     *
+     * @return whether there was one
+     */
+    public boolean deleteEntry(Tuple entry) {
+        int i = indexOf(entry);
+        if (i < 0) {
+            return false;
+        }
+        beforeModify();
+        entries.remove(i);
+        return true;
+    }
+
+    /** Removes all entries, e.g. to redistribute them when the bucket is split. */
+    public void clear() {
+        beforeModify();
+        entries.clear();
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(nextPgNo);
+        out.writeInt(entries.size());
+        for (Tuple t : entries) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(out);
+            }
+        }
+    }
+}
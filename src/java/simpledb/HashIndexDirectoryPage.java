@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashIndexDirectoryPage maps bucket numbers to the first page of each
+ * bucket of a HashIndexFile. The n-th directory page holds the page numbers
+ * of buckets n * numSlots() up to (n + 1) * numSlots() - 1.
+ */
+public class HashIndexDirectoryPage extends HashIndexPage {
+
+    private final int[] buckets;
+
+    public HashIndexDirectoryPage(HashIndexPageId id, byte[] data) throws IOException {
+        super(id);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        buckets = new int[numSlots()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = bb.getInt();
+        }
+    }
+
+    /** @return the number of buckets a directory page keeps track of */
+    public static int numSlots() {
+        return BufferPool.getPageSize() / 4;
+    }
+
+    /** @return the first page of the bucket in slot i */
+    public HashIndexPageId getBucketId(int i) {
+        return new HashIndexPageId(pid.getTableId(), buckets[i], HashIndexPageId.BUCKET);
+    }
+
+    public void setBucketId(int i, HashIndexPageId bucket) {
+        beforeModify();
+        buckets[i] = bucket.getPageNumber();
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        for (int b : buckets) {
+            out.writeInt(b);
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a secondary index on one field of a HeapFile, so that the
+ * tuples with a given key are found by reading a directory page and the
+ * pages of one bucket instead of the whole table.
+ * <p>
+ * The index is itself a DbFile in the catalog, added with
+ * {@link Catalog#addIndex}, whose tuples are entries of the key and the
+ * page and slot of an indexed tuple. The BufferPool keeps the entries up to
+ * date as tuples are inserted into and deleted from the table. Pages are read,
+ * locked and logged through the BufferPool like those of any other file.
+ * <p>
+ * The buckets are organized by linear hashing: there are 2^level + next
+ * buckets, see {@link HashIndexMetaPage#bucketOf}, and a bucket that
+ * overflows its page gets an overflow page chained to it. Every time an
+ * overflow page is added, bucket next is split in two, so the number of
+ * buckets grows with the index while there is no directory to double.
+ * Buckets are never merged.
+ *
+ * @see HashIndexPageId
+ */
+public class HashIndexFile implements DbFile {
+
+    /** Number of entries build() gathers in memory before writing their buckets. */
+    public static final int BUILD_ENTRIES_PER_PASS = 1 << 20;
+
+    private final PagedFile file;
+    private final HeapFile table;
+    private final int keyField;
+    private final TupleDesc td;
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f the file that stores the index
+     * @param table the table to index
+     * @param keyField the index of the field of table to index
+     * @throws IllegalArgumentException if table is not a HeapFile, whose
+     *         tuples keep their RecordId, or has no such field
+     */
+    public HashIndexFile(File f, DbFile table, int keyField) {
+        if (!(table instanceof HeapFile)) {
+            throw new IllegalArgumentException("Table " + table.getId() + " is not a HeapFile");
+        }
+        TupleDesc tableTd = table.getTupleDesc();
+        if (keyField < 0 || keyField >= tableTd.numFields()) {
+            throw new IllegalArgumentException("No field " + keyField + " in " + tableTd);
+        }
+        file = new PagedFile(f, 1);
+        this.table = (HeapFile) table;
+        this.keyField = keyField;
+        td = new TupleDesc(new Type[] {tableTd.getFieldType(keyField), Type.INT_TYPE, Type.INT_TYPE},
+                new String[] {tableTd.getFieldName(keyField), "page", "tuple"});
+    }
+
+    /** @return the File backing this index on disk. */
+    public File getFile() {
+        return file.getFile();
+    }
+
+    /** Returns an ID uniquely identifying this index, the hash of the absolute file name. */
+    public int getId() {
+        return getFile().getAbsolutePath().hashCode();
+    }
+
+    /** @return the TupleDesc of the entries: the key, and the page and slot of a tuple */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return table.getId();
+    }
+
+    /** @return the index of the indexed field in the table */
+    public int keyField() {
+        return keyField;
+    }
+
+    /** @return the entry of the tuple t of the indexed table, which must have a RecordId */
+    public Tuple entryOf(Tuple t) {
+        Tuple entry = new Tuple(td);
+        entry.setField(0, t.getField(keyField));
+        entry.setField(1, new IntField(t.getRecordId().getPageId().getPageNumber()));
+        entry.setField(2, new IntField(t.getRecordId().getTupleNumber()));
+        return entry;
+    }
+
+    /**
+     * @return the hash of key; its low bits pick the bucket, so they are
+     *         mixed with the high ones
+     */
+    static int hash(Field key) {
+        return Utility.mixHash(key.hashCode());
+    }
+
+    /** @return the id of the meta page of this index */
+    public HashIndexPageId getMetaId() {
+        return new HashIndexPageId(getId(), 0, HashIndexPageId.META);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof HashIndexPageId)) {
+            throw new IllegalArgumentException("Page " + pid + " is not a HashIndexPageId");
+        }
+        try {
+            return HashIndexPage.create((HashIndexPageId) pid, file.read(pid.getPageNumber()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        file.write(page);
+    }
+
+    /** Returns the number of pages in this file, including the meta page. */
+    public int numPages() {
+        return file.numPages();
+    }
+
+    /** @see PagedFile#page */
+    private HashIndexPage page(TransactionId tid, HashIndexPageId pid, Permissions perm,
+            Map<PageId, Page> dirtied) throws DbException, TransactionAbortedException {
+        return (HashIndexPage) PagedFile.page(tid, pid, perm, dirtied);
+    }
+
+    /** Creates an empty page of category pgcateg at the end of the file, see {@link PagedFile#created}. */
+    private HashIndexPage newPage(TransactionId tid, int pgcateg, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        HashIndexPage page = HashIndexPage.create(new HashIndexPageId(getId(), file.allocatePage(), pgcateg),
+                new byte[BufferPool.getPageSize()]);
+        PagedFile.created(tid, page, dirtied);
+        return page;
+    }
+
+    /** @return the id of the first page of bucket b */
+    private HashIndexPageId bucketId(TransactionId tid, HashIndexMetaPage meta, int b, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        int slots = HashIndexDirectoryPage.numSlots();
+        HashIndexDirectoryPage dir = (HashIndexDirectoryPage) page(tid, meta.getDirectoryId(b / slots),
+                Permissions.READ_ONLY, dirtied);
+        return dir.getBucketId(b % slots);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple entry)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!entry.getTupleDesc().equals(td)) {
+            throw new DbException(String.format("Tuple desc %s mismatch index desc %s", entry.getTupleDesc(), td));
+        }
+        Map<PageId, Page> dirtied = new LinkedHashMap<>();
+        HashIndexMetaPage meta = (HashIndexMetaPage) page(tid, getMetaId(), Permissions.READ_ONLY, dirtied);
+        if (meta.numDirectoryPages() == 0) {
+            // the first entry creates the directory and bucket 0
+            meta = (HashIndexMetaPage) page(tid, getMetaId(), Permissions.READ_WRITE, dirtied);
+            HashIndexDirectoryPage dir = (HashIndexDirectoryPage) newPage(tid, HashIndexPageId.DIRECTORY, dirtied);
+            HashIndexBucketPage bucket = (HashIndexBucketPage) newPage(tid, HashIndexPageId.BUCKET, dirtied);
+            dir.setBucketId(0, bucket.getId());
+            meta.addDirectoryPage(dir.getId());
+            bucket.insertEntry(entry);
+            return new ArrayList<>(dirtied.values());
+        }
+
+        HashIndexPageId pid = bucketId(tid, meta, meta.bucketOf(hash(entry.getField(0))), dirtied);
+        while (true) {
+            HashIndexBucketPage bucket = (HashIndexBucketPage) page(tid, pid, Permissions.READ_ONLY, dirtied);
+            if (!bucket.isFull()) {
+                bucket = (HashIndexBucketPage) page(tid, pid, Permissions.READ_WRITE, dirtied);
+                bucket.insertEntry(entry);
+                return new ArrayList<>(dirtied.values());
+            }
+            if (bucket.getNextId() == null) {
+                bucket = (HashIndexBucketPage) page(tid, pid, Permissions.READ_WRITE, dirtied);
+                HashIndexBucketPage overflow = (HashIndexBucketPage) newPage(tid, HashIndexPageId.BUCKET, dirtied);
+                bucket.setNextId(overflow.getId());
+                overflow.insertEntry(entry);
+                split(tid, dirtied);
+                return new ArrayList<>(dirtied.values());
+            }
+            pid = bucket.getNextId();
+        }
+    }
+
+    /**
+     * Splits the next bucket in line into itself and a new bucket at the end,
+     * unless the directory is full.
+     */
+    private void split(TransactionId tid, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        HashIndexMetaPage meta = (HashIndexMetaPage) page(tid, getMetaId(), Permissions.READ_WRITE, dirtied);
+        int slots = HashIndexDirectoryPage.numSlots();
+        int from = meta.getNext();
+        int to = meta.numBuckets();
+        if (to / slots >= HashIndexMetaPage.maxDirectoryPages()) {
+            return;
+        }
+        int mask = (1 << (meta.getLevel() + 1)) - 1;
+
+        // take every entry out of the bucket, keeping its pages
+        List<HashIndexBucketPage> oldPages = new ArrayList<>();
+        List<Tuple> entries = new ArrayList<>();
+        for (HashIndexPageId pid = bucketId(tid, meta, from, dirtied); pid != null; ) {
+            HashIndexBucketPage page = (HashIndexBucketPage) page(tid, pid, Permissions.READ_WRITE, dirtied);
+            entries.addAll(page.entries());
+            page.clear();
+            oldPages.add(page);
+            pid = page.getNextId();
+        }
+
+        HashIndexBucketPage first = (HashIndexBucketPage) newPage(tid, HashIndexPageId.BUCKET, dirtied);
+        if (to / slots == meta.numDirectoryPages()) {
+            HashIndexDirectoryPage dir = (HashIndexDirectoryPage) newPage(tid, HashIndexPageId.DIRECTORY, dirtied);
+            meta.addDirectoryPage(dir.getId());
+        }
+        HashIndexDirectoryPage dir = (HashIndexDirectoryPage) page(tid, meta.getDirectoryId(to / slots),
+                Permissions.READ_WRITE, dirtied);
+        dir.setBucketId(to % slots, first.getId());
+        meta.splitDone();
+
+        // the entries either stay or move to the new bucket
+        int kept = 0;
+        HashIndexBucketPage last = first;
+        for (Tuple entry : entries) {
+            if ((hash(entry.getField(0)) & mask) == from) {
+                if (oldPages.get(kept).isFull()) {
+                    kept++;
+                }
+                oldPages.get(kept).insertEntry(entry);
+            } else {
+                if (last.isFull()) {
+                    HashIndexBucketPage overflow = (HashIndexBucketPage) newPage(tid, HashIndexPageId.BUCKET, dirtied);
+                    last.setNextId(overflow.getId());
+                    last = overflow;
+                }
+                last.insertEntry(entry);
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple entry)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirtied = new LinkedHashMap<>();
+        HashIndexMetaPage meta = (HashIndexMetaPage) page(tid, getMetaId(), Permissions.READ_ONLY, dirtied);
+        if (meta.numDirectoryPages() > 0) {
+            HashIndexPageId pid = bucketId(tid, meta, meta.bucketOf(hash(entry.getField(0))), dirtied);
+            while (pid != null) {
+                HashIndexBucketPage bucket = (HashIndexBucketPage) page(tid, pid, Permissions.READ_ONLY, dirtied);
+                if (bucket.indexOf(entry) >= 0) {
+                    bucket = (HashIndexBucketPage) page(tid, pid, Permissions.READ_WRITE, dirtied);
+                    bucket.deleteEntry(entry);
+                    return new ArrayList<>(dirtied.values());
+                }
+                pid = bucket.getNextId();
+            }
+        }
+        throw new DbException(String.format("Entry %s is not in index %d", entry, getId()));
+    }
+
+    /**
+     * Iterates over the entries of the buckets from first up to but not
+     * including end, only returning those with the given key if it is not
+     * null.
+     */
+    private class EntryIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final Field key;
+        private HashIndexMetaPage meta;
+        private int bucket;
+        private int end;
+        private HashIndexPageId nextPage;
+        private List<Tuple> entries;
+        private int pos;
+
+        EntryIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            meta = (HashIndexMetaPage) Database.getBufferPool().getPage(tid, getMetaId(), Permissions.READ_ONLY);
+            entries = Collections.emptyList();
+            pos = 0;
+            nextPage = null;
+            if (meta.numDirectoryPages() == 0) {
+                bucket = end = 0;
+            } else if (key == null) {
+                bucket = 0;
+                end = meta.numBuckets();
+            } else {
+                bucket = meta.bucketOf(hash(key));
+                end = bucket + 1;
+            }
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (entries == null) {
+                return null;
+            }
+            while (true) {
+                while (pos < entries.size()) {
+                    Tuple entry = entries.get(pos++);
+                    if (key == null || entry.getField(0).equals(key)) {
+                        return entry;
+                    }
+                }
+                if (nextPage == null) {
+                    if (bucket == end) {
+                        return null;
+                    }
+                    nextPage = bucketId(tid, meta, bucket++, Collections.<PageId, Page>emptyMap());
+                }
+                HashIndexBucketPage page = (HashIndexBucketPage) Database.getBufferPool()
+                        .getPage(tid, nextPage, Permissions.READ_ONLY);
+                entries = page.entries();
+                pos = 0;
+                nextPage = page.getNextId();
+            }
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            entries = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null);
+    }
+
+    /** @return an iterator over the entries with the given key */
+    public DbFileIterator entries(TransactionId tid, Field key) {
+        return new EntryIterator(tid, key);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the indexed table whose key
+     * field equals key. Only one bucket of the index is read, and the pages of
+     * the table that hold the tuples.
+     */
+    public DbFileIterator lookup(final TransactionId tid, Field key) {
+        final DbFileIterator it = entries(tid, key);
+        return new AbstractDbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                super.open();
+                it.open();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!it.hasNext()) {
+                    return null;
+                }
+                Tuple entry = it.next();
+                HeapPageId pid = new HeapPageId(table.getId(), ((IntField) entry.getField(1)).getValue());
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                return page.getTuple(((IntField) entry.getField(2)).getValue());
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                it.close();
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * Builds the index of the tuples already in the table, on behalf of tid.
+     * The index is sized so its buckets start out about 3/4 full, and each
+     * page is written once, straight to disk, as HeapFile.BulkAppender does:
+     * the pages are logged first, and written back empty if tid aborts.
+     * The table is scanned once per BUILD_ENTRIES_PER_PASS entries.
+     *
+     * @throws DbException if the index is not empty
+     */
+    public void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        HashIndexMetaPage meta = (HashIndexMetaPage) pool.getPage(tid, getMetaId(), Permissions.READ_WRITE);
+        if (meta.numDirectoryPages() > 0) {
+            throw new DbException("Index " + getId() + " is not empty");
+        }
+        int numTuples = 0;
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            numTuples++;
+        }
+        it.close();
+
+        int perPage = HashIndexBucketPage.maxEntries(td);
+        int slots = HashIndexDirectoryPage.numSlots();
+        int level = 0;
+        while ((1L << level) * perPage * 3 / 4 < numTuples
+                && (2L << level) <= (long) slots * HashIndexMetaPage.maxDirectoryPages()) {
+            level++;
+        }
+        int numBuckets = 1 << level;
+        int numDirPages = (numBuckets + slots - 1) / slots;
+
+        // the meta page, the directory pages, the first page of each bucket,
+        // and then the overflow pages
+        int firstBucketPage = file.allocatePages(numDirPages + numBuckets) + numDirPages;
+        HashIndexMetaPage newMeta = (HashIndexMetaPage) HashIndexPage.create(getMetaId(),
+                new byte[BufferPool.getPageSize()]);
+        newMeta.setLevel(level);
+        List<HashIndexPage> pages = new ArrayList<>();
+        for (int d = 0; d < numDirPages; d++) {
+            HashIndexPageId dirId = new HashIndexPageId(getId(), firstBucketPage - numDirPages + d,
+                    HashIndexPageId.DIRECTORY);
+            HashIndexDirectoryPage dir = (HashIndexDirectoryPage) HashIndexPage.create(dirId,
+                    new byte[BufferPool.getPageSize()]);
+            for (int i = 0; i < slots && d * slots + i < numBuckets; i++) {
+                dir.setBucketId(i, new HashIndexPageId(getId(), firstBucketPage + d * slots + i,
+                        HashIndexPageId.BUCKET));
+            }
+            newMeta.addDirectoryPage(dirId);
+            pages.add(dir);
+        }
+        writeBuilt(tid, pages);
+
+        int bucketsPerPass = Math.max(1, BUILD_ENTRIES_PER_PASS / perPage);
+        for (int lo = 0; lo < numBuckets; lo += bucketsPerPass) {
+            int hi = Math.min(numBuckets, lo + bucketsPerPass);
+            List<List<Tuple>> buckets = new ArrayList<>(hi - lo);
+            for (int b = lo; b < hi; b++) {
+                buckets.add(new ArrayList<Tuple>());
+            }
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                int b = hash(t.getField(keyField)) & (numBuckets - 1);
+                if (b >= lo && b < hi) {
+                    buckets.get(b - lo).add(entryOf(t));
+                }
+            }
+            it.close();
+
+            pages.clear();
+            for (int b = lo; b < hi; b++) {
+                HashIndexPageId pid = new HashIndexPageId(getId(), firstBucketPage + b, HashIndexPageId.BUCKET);
+                HashIndexBucketPage page = (HashIndexBucketPage) HashIndexPage.create(pid,
+                        new byte[BufferPool.getPageSize()]);
+                pages.add(page);
+                for (Tuple entry : buckets.get(b - lo)) {
+                    if (page.isFull()) {
+                        HashIndexPageId next = new HashIndexPageId(getId(), file.allocatePage(), HashIndexPageId.BUCKET);
+                        page.setNextId(next);
+                        page = (HashIndexBucketPage) HashIndexPage.create(next, new byte[BufferPool.getPageSize()]);
+                        pages.add(page);
+                    }
+                    page.insertEntry(entry);
+                }
+            }
+            writeBuilt(tid, pages);
+        }
+
+        // the meta page goes last, so the index stays empty until it is complete
+        writeBuilt(tid, Collections.<HashIndexPage>singletonList(newMeta));
+    }
+
+    /** Logs and writes pages built by tid, see HeapFile.BulkAppender.flush(). */
+    private void writeBuilt(TransactionId tid, List<HashIndexPage> pages) throws IOException, DbException,
+            TransactionAbortedException {
+        List<Page> beforeImages = new ArrayList<>(pages.size());
+        for (HashIndexPage page : pages) {
+            Database.getBufferPool().getLockManager().acquire(tid, page.getId(), true);
+            Page before = page.getId().getPageNumber() < numPages()
+                    ? readPage(page.getId())
+                    : HashIndexPage.create(page.getId(), new byte[BufferPool.getPageSize()]);
+            Database.getLogFile().logWrite(tid, before, page);
+            beforeImages.add(before);
+        }
+        Database.getLogFile().force();
+        Database.getBufferPool().pagesWritten(tid, beforeImages);
+        for (HashIndexPage page : pages) {
+            writePage(page);
+            // drop stale copies, e.g. of the empty meta page
+            Database.getBufferPool().discardPage(page.getId());
+            Database.getLogFile().pageWritten(page.getId());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * HashIndexMetaPage is page 0 of every HashIndexFile. It holds the state of
+ * the linear hashing scheme: the level, the next bucket to split and the
+ * directory pages that map bucket numbers to pages. There are
+ * 2^level + next buckets, and an all-zero page describes an index whose
+ * single bucket has no page yet.
+ * <p>
+ * The format is the level, the next bucket to split and the number of
+ * directory pages, then their page numbers.
+ */
+public class HashIndexMetaPage extends HashIndexPage {
+
+    private int level;
+    private int next;
+    private int[] directory;
+
+    public HashIndexMetaPage(HashIndexPageId id, byte[] data) throws IOException {
+        super(id);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        level = bb.getInt();
+        next = bb.getInt();
+        int n = bb.getInt();
+        if (n > maxDirectoryPages()) {
+            throw new IOException("Page " + id + " claims " + n + " directory pages");
+        }
+        directory = new int[n];
+        for (int i = 0; i < n; i++) {
+            directory[i] = bb.getInt();
+        }
+    }
+
+    /** @return the number of directory pages the meta page can point to */
+    public static int maxDirectoryPages() {
+        return (BufferPool.getPageSize() - 12) / 4;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /** @return the next bucket to split */
+    public int getNext() {
+        return next;
+    }
+
+    public int numBuckets() {
+        return (1 << level) + next;
+    }
+
+    /** @return the bucket that holds the keys whose hash is h */
+    public int bucketOf(int h) {
+        int b = h & ((1 << level) - 1);
+        if (b < next) {
+            b = h & ((1 << (level + 1)) - 1);
+        }
+        return b;
+    }
+
+    /** Starts the index out with 2^level buckets, e.g. when it is built in bulk. */
+    public void setLevel(int level) {
+        beforeModify();
+        this.level = level;
+        next = 0;
+    }
+
+    /** Records that bucket getNext() was split. */
+    public void splitDone() {
+        beforeModify();
+        next++;
+        if (next == 1 << level) {
+            level++;
+            next = 0;
+        }
+    }
+
+    public int numDirectoryPages() {
+        return directory.length;
+    }
+
+    public HashIndexPageId getDirectoryId(int i) {
+        return new HashIndexPageId(pid.getTableId(), directory[i], HashIndexPageId.DIRECTORY);
+    }
+
+    public void addDirectoryPage(HashIndexPageId dir) {
+        beforeModify();
+        directory = java.util.Arrays.copyOf(directory, directory.length + 1);
+        directory[directory.length - 1] = dir.getPageNumber();
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(level);
+        out.writeInt(next);
+        out.writeInt(directory.length);
+        for (int d : directory) {
+            out.writeInt(d);
+        }
+    }
+}
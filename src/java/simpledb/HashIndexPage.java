@@ -0,0 +1,40 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashIndexPage is the base class of the pages of a HashIndexFile; see
+ * IndexPage for the dirty flag and the before image.
+ *
+ * @see HashIndexFile
+ */
+public abstract class HashIndexPage extends IndexPage<HashIndexPageId> {
+
+    protected HashIndexPage(HashIndexPageId pid) {
+        super(pid);
+    }
+
+    /**
+     * Creates the page pid from its bytes, choosing the page class from the
+     * category of pid.
+     */
+    public static HashIndexPage create(HashIndexPageId pid, byte[] data) throws IOException {
+        if (data.length < BufferPool.getPageSize()) {
+            throw new IOException("Page " + pid + " has only " + data.length + " bytes");
+        }
+        switch (pid.pgcateg()) {
+        case HashIndexPageId.META:
+            return new HashIndexMetaPage(pid, data);
+        case HashIndexPageId.DIRECTORY:
+            return new HashIndexDirectoryPage(pid, data);
+        case HashIndexPageId.BUCKET:
+            return new HashIndexBucketPage(pid, data);
+        default:
+            throw new IOException("Unknown category of page " + pid);
+        }
+    }
+
+    protected HashIndexPage parse(byte[] data) throws IOException {
+        return create(pid, data);
+    }
+}
@@ -0,0 +1,30 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a HashIndexFile, whose category is one
+ * of META, DIRECTORY and BUCKET.
+ */
+public class HashIndexPageId extends IndexPageId {
+
+    public static final int META = 0;
+    public static final int DIRECTORY = 1;
+    public static final int BUCKET = 2;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index.
+     *
+     * @param tableId The index that is being referenced
+     * @param pageNo The page number in that index.
+     * @param pgcateg The category of the page, one of META, DIRECTORY and
+     *                BUCKET
+     */
+    public HashIndexPageId(int tableId, int pageNo, int pgcateg) {
+        super(tableId, pageNo, pgcateg);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("index(%d)page(%d)categ(%d)", getTableId(), getPageNumber(), pgcateg());
+    }
+}
@@ -1,7 +1,7 @@
 package simpledb;
 
-import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -18,6 +18,8 @@ public class HeapFile implements DbFile {
 
     private final File file;
     private final TupleDesc td;
+    private volatile FreeSpaceMap freeSpace;  // created by the first insert
+    private final PagedFile pages;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,6 +31,7 @@ public class HeapFile implements DbFile {
         // some code goes here
         file = f;
         this.td = td;
+        pages = new PagedFile(f, 0);
     }
 
     /**
@@ -69,12 +72,7 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
         try {
-            byte[] data = new byte[BufferPool.getPageSize()];
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            raf.seek(pid.getPageNumber() * BufferPool.getPageSize());
-            raf.read(data);
-            raf.close();
-            return new HeapPage((HeapPageId) pid, data);
+            return noteFreeSpace(new HeapPage((HeapPageId) pid, pages.read(pid.getPageNumber())));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -84,10 +82,35 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        RandomAccessFile raf = new RandomAccessFile(file, "rw");
-        raf.seek(page.getId().getPageNumber() * BufferPool.getPageSize());
-        raf.write(page.getPageData());
-        raf.close();
+        pages.write(page);
+    }
+
+    /** @return the free-space map of this file, building it on first use */
+    private FreeSpaceMap freeSpace() {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                if (freeSpace == null) {
+                    freeSpace = new FreeSpaceMap(numPages());
+                }
+                fsm = freeSpace;
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * Records in the free-space map, if there is one yet, whether page has an
+     * empty slot.
+     *
+     * @return page
+     */
+    HeapPage noteFreeSpace(HeapPage page) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            fsm.setHasRoom(page.getId().getPageNumber(), page.getNumEmptySlots() > 0);
+        }
+        return page;
     }
 
     /**
@@ -109,23 +132,34 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        for (int i = 0; i < numPages(); i++) {
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpace();
+        for (int i = fsm.nextWithRoom(0); i >= 0; i = fsm.nextWithRoom(i + 1)) {
             HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, null);
+            // lock the page for writing right away: the map says it most
+            // likely has room, and upgrading a shared lock would deadlock
+            // with every other inserter that picked the same page
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
             if (page.getNumEmptySlots() > 0) {
                 page.insertTuple(t);
+                noteFreeSpace(page);
                 return new ArrayList<>(Arrays.asList(page));
             }
+            fsm.setHasRoom(i, false);
+            if (!held) {
+                // we didn't change anything on this page
+                pool.releasePage(tid, pid);
+            }
         }
-        // Create a new page, the page number will be the current numPages()
-        BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(file, true));
-        byte[] emptyData = HeapPage.createEmptyPageData();
-        bw.write(emptyData);
-        bw.close();
-
-        HeapPageId pid = new HeapPageId(getId(), numPages() - 1);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, null);
+        // Create a new page at the end of the file
+        HeapPageId pid = new HeapPageId(getId(), pages.allocatePage());
+        Database.getFileChannelPool().write(file, ByteBuffer.wrap(HeapPage.createEmptyPageData()),
+                pages.pageOffset(pid.getPageNumber()));
+
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
         page.insertTuple(t);
+        noteFreeSpace(page);
         return new ArrayList<>(Arrays.asList(page));
     }
 
@@ -137,20 +171,126 @@ public class HeapFile implements DbFile {
         if (t.getRecordId().getPageId().getTableId() != getId()) {
             throw new DbException(String.format("Page %s is not part of table %d", t.getRecordId().getPageId(), getId()));
         }
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), null);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(),
+                Permissions.READ_WRITE);
         page.deleteTuple(t);
+        freeSpace().setHasRoom(page.getId().getPageNumber(), true);
 //        t.setRecordId(null);
         return new ArrayList<>(Arrays.asList(page));
     }
 
+    /**
+     * Returns a BulkAppender that appends tuples to new pages at the end of
+     * this file on behalf of tid.
+     */
+    public BulkAppender bulkAppender(TransactionId tid) {
+        return new BulkAppender(tid);
+    }
+
+    /**
+     * BulkAppender loads tuples into a HeapFile much faster than inserting
+     * them one at a time. Tuples are packed into fresh pages in memory, which
+     * are written to the end of the file in large sequential writes without
+     * passing through the BufferPool, and free space in existing pages is not
+     * reused. Entries for the hash indexes of the table are still inserted
+     * through the BufferPool.
+     * <p>
+     * The new pages are locked exclusively by the loading transaction, and
+     * their updates are logged before they are written. Since the pages reach
+     * disk before the transaction commits, the BufferPool is told about them
+     * and empties them again if the transaction aborts.
+     */
+    public class BulkAppender {
+        /** Number of pages gathered in memory before they are written. */
+        public static final int CHUNK_PAGES = 64;
+
+        private final TransactionId tid;
+        private final List<HeapPage> pending = new ArrayList<>(CHUNK_PAGES);
+        private HeapPage current;
+
+        private BulkAppender(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        /**
+         * Appends t to the file. Its RecordId is set to its new location.
+         *
+         * @throws DbException if t doesn't match the file's TupleDesc
+         */
+        public void append(Tuple t) throws DbException, IOException, TransactionAbortedException {
+            if (current == null || current.getNumEmptySlots() == 0) {
+                if (pending.size() == CHUNK_PAGES) {
+                    flush();
+                }
+                HeapPageId pid = new HeapPageId(getId(), pages.allocatePage());
+                Database.getBufferPool().getLockManager().acquire(tid, pid, true);
+                current = new HeapPage(pid, HeapPage.createEmptyPageData());
+                pending.add(current);
+            }
+            current.insertTuple(t);
+            Database.getBufferPool().updateIndexes(tid, getId(), t, true);
+        }
+
+        /** Writes the pages appended so far. */
+        public void flush() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<Page> beforeImages = new ArrayList<>(pending.size());
+            for (HeapPage page : pending) {
+                HeapPage empty = new HeapPage(page.getId(), HeapPage.createEmptyPageData());
+                Database.getLogFile().logWrite(tid, empty, page);
+                beforeImages.add(empty);
+            }
+            Database.getLogFile().force();
+            Database.getBufferPool().pagesWritten(tid, beforeImages);
+
+            // pages are allocated in increasing order, but other appenders
+            // may have taken numbers in between; write each run in one go
+            int pageSize = BufferPool.getPageSize();
+            int start = 0;
+            while (start < pending.size()) {
+                int end = start + 1;
+                while (end < pending.size() && pending.get(end).getId().getPageNumber()
+                        == pending.get(end - 1).getId().getPageNumber() + 1) {
+                    end++;
+                }
+                ByteBuffer run = ByteBuffer.allocate((end - start) * pageSize);
+                for (int i = start; i < end; i++) {
+                    run.put(pending.get(i).getPageData());
+                }
+                run.flip();
+                Database.getFileChannelPool().write(file, run,
+                        pages.pageOffset(pending.get(start).getId().getPageNumber()));
+                start = end;
+            }
+            for (HeapPage page : pending) {
+                Database.getLogFile().pageWritten(page.getId());
+            }
+            // the last page may have room left for later inserts
+            noteFreeSpace(pending.get(pending.size() - 1));
+            pending.clear();
+            current = null;
+        }
+
+        /** Writes the remaining pages. The appender may not be used afterwards. */
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
     private static class HeapFileIterator extends AbstractDbFileIterator {
 
         private final HeapFile heapFile;
+        private final TransactionId tid;
+        private final Predicate predicate;
         private int nextPageNum;
         private Iterator<Tuple> curPageIt;
 
-        private HeapFileIterator(HeapFile heapFile) {
+        private HeapFileIterator(HeapFile heapFile, TransactionId tid, Predicate predicate) {
             this.heapFile = heapFile;
+            this.tid = tid;
+            this.predicate = predicate;
             close();  // Newly created iterator is "closed".
         }
 
@@ -165,8 +305,8 @@ public class HeapFile implements DbFile {
             }
             HeapPageId pid = new HeapPageId(heapFile.getId(), nextPageNum);
             nextPageNum++;
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(null, pid, null);
-            curPageIt = page.iterator();
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            curPageIt = predicate == null ? page.iterator() : page.iterator(predicate);
             return readNext();
         }
 
@@ -193,7 +333,16 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this);
+        return new HeapFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p.
+     * Tuples are tested against p straight from the page bytes, so tuples
+     * that don't qualify are never decoded.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new HeapFileIterator(this, tid, p);
     }
 
 }
@@ -1,9 +1,8 @@
 package simpledb;
 
-import jdk.dynalink.beans.MissingMemberHandlerFactory;
-
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,9 +16,16 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
+    final int[] fieldOffsets;  // byte offset of each field within a tuple
+    final Tuple tuples[];      // decoded tuples, filled in on demand
+
+    // The raw bytes of this page; they are the authoritative copy of its
+    // contents. Until the page is first modified this may be a view of a
+    // buffer owned by someone else, e.g. a mapped file region.
+    private ByteBuffer data;
+    private boolean privateData = false;
 
     boolean dirty;
     TransactionId tid;
@@ -44,28 +50,31 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage straight from a buffer holding the page bytes, e.g. a
+     * slice of a memory-mapped file. The page keeps a view of the bytes
+     * between the buffer's position and limit and only decodes a tuple when
+     * it is asked for; the bytes are copied on the first modification.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         pid = id;
         td = Database.getCatalog().getTupleDesc(id.getTableId());
         numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-//        System.out.printf("kkk numTuple: %d tdSize: %d headerSize: %d\n", numSlots, td.getSize(), getHeaderSize());
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        headerSize = getHeaderSize();
+        if (data.remaining() < headerSize + numSlots * td.getSize()) {
+            throw new IOException("Page " + id + " has only " + data.remaining() + " bytes");
         }
-        dis.close();
-
-        setBeforeImage();
+        this.data = data.slice();
+        fieldOffsets = new int[td.numFields()];
+        for (int i = 1; i < fieldOffsets.length; i++) {
+            fieldOffsets[i] = fieldOffsets[i - 1] + td.getFieldType(i - 1).getLen();
+        }
+        tuples = new Tuple[numSlots];
     }
 
     /** Retrieve the number of tuples on this page.
@@ -107,6 +116,10 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null) {
+                // not modified since the last setBeforeImage()
+                oldDataRef = getPageData();
+            }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -116,10 +129,24 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * The before image is only materialized when the page is first modified,
+     * so reading a page doesn't pay for serializing a copy of it.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /** Snapshot the current contents as the before image, unless already done. */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
         }
     }
 
@@ -131,30 +158,23 @@ public class HeapPage implements Page {
         return pid;
     }
 
+    /** @return the byte offset of the specified slot within the page. */
+    private int slotOffset(int slot) {
+        return headerSize + slot * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Decode the tuple stored in the specified slot.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        ByteBuffer bb = data.duplicate();
+        bb.position(slotOffset(slotId));
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(bb);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
@@ -165,6 +185,20 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /**
+     * Make the page bytes private to this page before they are modified.
+     */
+    private void ensurePrivateData() {
+        if (!privateData) {
+            byte[] copy = new byte[data.capacity()];
+            ByteBuffer src = data.duplicate();
+            src.clear();
+            src.get(copy);
+            data = ByteBuffer.wrap(copy);
+            privateData = true;
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -177,64 +211,12 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = data.duplicate();
+        src.clear();
+        src.limit(Math.min(src.capacity(), pageData.length));
+        src.get(pageData, 0, src.remaining());
+        return pageData;
     }
 
     /**
@@ -267,7 +249,16 @@ public class HeapPage implements Page {
         if (!isSlotUsed(t.getRecordId().getTupleNumber())) {
             throw new DbException(String.format("Tuple %s slot %d is already empty", t, t.getRecordId().getTupleNumber()));
         }
-        markSlotUsed(t.getRecordId().getTupleNumber(), false);
+        int slot = t.getRecordId().getTupleNumber();
+        captureBeforeImage();
+        ensurePrivateData();
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        // empty slots are stored as zeroes
+        int off = slotOffset(slot);
+        for (int i = 0; i < td.getSize(); i++) {
+            data.put(off + i, (byte) 0);
+        }
     }
 
     /**
@@ -286,15 +277,38 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == 0) {
             throw new DbException(String.format("Page %s is full.", pid));
         }
-        for (int i = 0; i < tuples.length; i++) {
+        for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
+                captureBeforeImage();
+                ensurePrivateData();
+                writeTuple(i, t);
+                t.setRecordId(new RecordId(pid, i));
                 tuples[i] = t;
-                tuples[i].setRecordId(new RecordId(pid, i));
                 markSlotUsed(i, true);
                 return;
             }
         }
-        throw new DbException(String.format("Page %d claims to have empty slot but non is found.", pid));
+        throw new DbException(String.format("Page %s claims to have empty slot but non is found.", pid));
+    }
+
+    /**
+     * Serialize the fields of t into the specified slot.
+     */
+    private void writeTuple(int slot, Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("couldn't serialize " + t + ": " + e);
+        }
+        byte[] bytes = baos.toByteArray();
+        ByteBuffer bb = data.duplicate();
+        bb.position(slotOffset(slot));
+        bb.put(bytes, 0, td.getSize());
     }
 
     /**
@@ -309,7 +323,36 @@ public class HeapPage implements Page {
         if (!isSlotUsed(slot)) {
             throw new RuntimeException("Slot " + slot + " is empty.");
         }
-        return tuples[slot];
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = readTuple(slot);
+            tuples[slot] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Read a single field of the tuple in the given slot straight from the
+     * page bytes, without decoding the rest of the tuple.
+     * @param slot the index of the slot holding the tuple
+     * @param field the index of the field to read
+     * @throws RuntimeException if the slot is empty or out of range
+     */
+    public Field getField(int slot, int field) {
+        if (slot >= numSlots || !isSlotUsed(slot)) {
+            throw new RuntimeException("Slot " + slot + " is empty or out of range.");
+        }
+        Tuple t = tuples[slot];
+        if (t != null) {
+            return t.getField(field);
+        }
+        ByteBuffer bb = data.duplicate();
+        bb.position(slotOffset(slot) + fieldOffsets[field]);
+        try {
+            return td.getFieldType(field).parse(bb);
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
     }
 
     /**
@@ -337,13 +380,16 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int emptySlots = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                emptySlots++;
+        int usedSlots = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            usedSlots += Integer.bitCount(data.get(i) & 0xff);
+        }
+        for (int i = numSlots / 8 * 8; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                usedSlots++;
             }
         }
-        return emptySlots;
+        return numSlots - usedSlots;
     }
 
     /**
@@ -353,7 +399,7 @@ public class HeapPage implements Page {
         // some code goes here
         int byteIdx = i / 8;
         int bitIdx = i % 8;
-        return (header[byteIdx] & (1 << bitIdx)) != 0;
+        return (data.get(byteIdx) & (1 << bitIdx)) != 0;
     }
 
     /**
@@ -364,26 +410,46 @@ public class HeapPage implements Page {
         // not necessary for lab1
         int byteIdx = i / 8;
         int bitIdx = i % 8;
+        byte b = data.get(byteIdx);
         if (value) {
-            header[byteIdx] |= (1 << bitIdx);
+            b |= (1 << bitIdx);
         } else {
-            header[byteIdx] &= ~(1 << bitIdx);
+            b &= ~(1 << bitIdx);
         }
+        data.put(byteIdx, b);
+    }
+
+    /**
+     * Returns true if the tuple in the specified slot satisfies p. Only the
+     * field that p compares is read from the page.
+     */
+    public boolean matches(int slot, Predicate p) {
+        return getField(slot, p.getField()).compare(p.getOp(), p.getOperand());
     }
 
     public static class HeapPageIterator implements Iterator<Tuple> {
 
-        private HeapPage page;
+        private final HeapPage page;
+        private final Predicate predicate;
         private int itSlot = 0;
 
         public HeapPageIterator(HeapPage page) {
+            this(page, null);
+        }
+
+        /**
+         * Iterates over the tuples on the page that satisfy predicate (or all
+         * tuples if it is null); rejected tuples are never decoded.
+         */
+        public HeapPageIterator(HeapPage page, Predicate predicate) {
             this.page = page;
+            this.predicate = predicate;
         }
 
         @Override
         public boolean hasNext() {
             while (itSlot < page.numSlots) {
-                if (page.isSlotUsed(itSlot)) {
+                if (page.isSlotUsed(itSlot) && (predicate == null || page.matches(itSlot, predicate))) {
                     return true;
                 }
                 itSlot++;
@@ -393,15 +459,11 @@ public class HeapPage implements Page {
 
         @Override
         public Tuple next() {
-//            System.out.printf("kkk Page itTuple: %d itSlot: %d numUsedSlots: %d\n", itTuple, itSlot, page.getNumUsedSlots());
-            while (itSlot < page.numSlots) {
-                if (page.isSlotUsed(itSlot)) {
-                    itSlot++;
-                    return page.getTuple(itSlot - 1);
-                }
-                itSlot++;
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more tuples on this page.");
             }
-            throw new NoSuchElementException("No more tuples on this page.");
+            itSlot++;
+            return page.getTuple(itSlot - 1);
         }
     }
 
@@ -414,5 +476,11 @@ public class HeapPage implements Page {
         return new HeapPageIterator(this);
     }
 
-}
+    /**
+     * @return an iterator over the tuples on this page that satisfy p
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new HeapPageIterator(this, p);
+    }
 
+}
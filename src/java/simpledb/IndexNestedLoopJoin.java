@@ -0,0 +1,170 @@
+package simpledb;
+
+/**
+ * IndexNestedLoopJoin is a Join that, instead of scanning the whole inner
+ * relation for every outer tuple, looks the join field of the outer tuple up
+ * in an index on the join field of the inner table. The inner table is either
+ * stored in a BTreeFile keyed on the join field, which can answer any
+ * comparison but LIKE and NOT_EQUALS, or has a HashIndexFile on it, which can
+ * answer EQUALS.
+ * <p>
+ * The inner child must be a scan of the table, possibly under Filters. The
+ * scan is replaced with an IndexScan that is pointed at a new key and
+ * rewound for each outer tuple, so the Filters still apply to the matches.
+ */
+public class IndexNestedLoopJoin extends Join {
+
+    private static final long serialVersionUID = 1L;
+
+    private IndexScan probe;
+    private Tuple curTuple1;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join, see
+     *            {@link #canProbe}
+     * @throws IllegalArgumentException if child2 has no index to probe
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        super(p, child1, child2);
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return whether inner is a scan of a table, possibly under Filters,
+     *         with an index that finds the tuples whose field satisfies
+     *         <tt>outer op field</tt> for the field of an outer tuple
+     */
+    public static boolean canProbe(OpIterator inner, int field, Predicate.Op op) {
+        return probeFor(inner, field, op) != null;
+    }
+
+    /** @return the scan at the bottom of inner, or null if there is none */
+    private static SeqScan scanOf(OpIterator inner) {
+        while (inner instanceof Filter) {
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        return inner instanceof SeqScan ? (SeqScan) inner : null;
+    }
+
+    /**
+     * @return an IndexScan that can replace the scan at the bottom of inner
+     *         to find its matches, or null if it has no suitable index
+     */
+    private static IndexScan probeFor(OpIterator inner, int field, Predicate.Op op) {
+        SeqScan scan = scanOf(inner);
+        if (scan == null) {
+            return null;
+        }
+        int tableId = scan.getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field
+                && op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS) {
+            return new IndexScan(scan.getTransactionId(), tableId, scan.getAlias(), reverse(op), null);
+        }
+        if (op == Predicate.Op.EQUALS) {
+            for (HashIndexFile index : Database.getCatalog().getIndexes(tableId)) {
+                if (index.keyField() == field) {
+                    return new IndexScan(scan.getTransactionId(), index, scan.getAlias(), null);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return the operator op' such that <tt>a op b</tt> iff <tt>b op' a</tt> */
+    static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        curTuple1 = null;
+        probe.setOperand(null);
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        curTuple1 = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples, in the same format as {@link Join#fetchNext}.
+     */
+    @Override
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        OpIterator[] children = getChildren();
+        JoinPredicate predicate = getJoinPredicate();
+        while (true) {
+            if (curTuple1 != null) {
+                while (children[1].hasNext()) {
+                    Tuple t2 = children[1].next();
+                    if (predicate.filter(curTuple1, t2)) {
+                        Tuple newTuple = new Tuple(getTupleDesc());
+                        int n1 = curTuple1.getTupleDesc().numFields();
+                        for (int i = 0; i < n1; i++) {
+                            newTuple.setField(i, curTuple1.getField(i));
+                        }
+                        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+                            newTuple.setField(n1 + i, t2.getField(i));
+                        }
+                        return newTuple;
+                    }
+                }
+            }
+            if (!children[0].hasNext()) {
+                return null;
+            }
+            curTuple1 = children[0].next();
+            probe.setOperand(curTuple1.getField(predicate.getField1()));
+            children[1].rewind();
+        }
+    }
+
+    /**
+     * Sets the children, replacing the scan at the bottom of the inner child
+     * with an IndexScan.
+     *
+     * @throws IllegalArgumentException if the inner child has no index to probe
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        JoinPredicate p = getJoinPredicate();
+        probe = probeFor(children[1], p.getField2(), p.getOperator());
+        if (probe == null) {
+            throw new IllegalArgumentException("No index on field " + p.getField2() + " of the inner relation");
+        }
+        OpIterator inner = children[1];
+        if (inner instanceof Filter) {
+            Filter parent = (Filter) inner;
+            while (parent.getChildren()[0] instanceof Filter) {
+                parent = (Filter) parent.getChildren()[0];
+            }
+            parent.setChildren(new OpIterator[] { probe });
+        } else {
+            inner = probe;
+        }
+        super.setChildren(new OpIterator[] { children[0], inner });
+    }
+}
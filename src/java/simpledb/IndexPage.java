@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * IndexPage is the base class of the pages of the index files, BTreePage and
+ * HashIndexPage. It keeps the dirty flag and the before image of the page;
+ * the subclasses hold the decoded contents of the page and serialize them in
+ * getPageData().
+ * <p>
+ * Subclasses must call {@link #beforeModify} before they change anything,
+ * so the before image is taken lazily, as in HeapPage.
+ *
+ * @see PagedFile
+ */
+public abstract class IndexPage<I extends IndexPageId> implements Page {
+
+    protected final I pid;
+
+    private volatile boolean dirty;
+    private volatile TransactionId dirtier;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected IndexPage(I pid) {
+        this.pid = pid;
+    }
+
+    /** @return a page with the same id as this one, read from data */
+    protected abstract IndexPage<I> parse(byte[] data) throws IOException;
+
+    public I getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtier = tid;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /** Snapshot the current contents as the before image, unless already done. */
+    protected void beforeModify() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+        }
+    }
+
+    public IndexPage<I> getBeforeImage() {
+        byte[] before;
+        synchronized (oldDataLock) {
+            before = oldData;
+        }
+        if (before == null) {
+            // not modified since the last setBeforeImage()
+            before = getPageData();
+        }
+        try {
+            return parse(before);
+        } catch (IOException e) {
+            // we parsed it OK before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    /** Writes the contents of this page, to be padded to a full page. */
+    protected abstract void write(DataOutputStream out) throws IOException;
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream out = new DataOutputStream(baos);
+        try {
+            write(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, pageData, 0, written.length);
+        return pageData;
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+/**
+ * IndexPageId is the base class of the page ids of the index files,
+ * BTreePageId and HashIndexPageId. Besides the table and page number it
+ * carries the category of the page, so the file knows which kind of page to
+ * build from the bytes it reads.
+ * <p>
+ * The category is not part of the identity of the page: a page that is freed
+ * and reused as another kind of page is still the same page to the
+ * BufferPool and the LockManager.
+ */
+public abstract class IndexPageId implements PageId {
+
+    private final int tableId;
+    private final int pageNo;
+    private final int pgcateg;
+
+    /**
+     * @param tableId The file that is being referenced
+     * @param pageNo The page number in that file.
+     * @param pgcateg The category of the page, one of the constants of the
+     *                subclass
+     */
+    protected IndexPageId(int tableId, int pageNo, int pgcateg) {
+        this.tableId = tableId;
+        this.pageNo = pageNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pageNo;
+    }
+
+    /** @return the category of this page */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    public int hashCode() {
+        return 31 * tableId + pageNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against
+     * @return true if o is a page id of the same class for the same page of
+     *         the same table
+     */
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        IndexPageId pageId = (IndexPageId) o;
+        return tableId == pageId.tableId && pageNo == pageId.pageNo;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk. The integers are the arguments of the
+     *  constructor.
+     */
+    public int[] serialize() {
+        return new int[] {tableId, pageNo, pgcateg};
+    }
+}
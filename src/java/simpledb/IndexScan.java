@@ -0,0 +1,106 @@
+package simpledb;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table stored in a
+ * BTreeFile whose key field satisfies <tt>key op operand</tt>, in key order.
+ * Only the pages on the way down the tree and the leaves that may hold
+ * matching tuples are read.
+ * <p>
+ * It can also read the tuples of a table whose field equals operand through
+ * a HashIndexFile on the field, in no particular order.
+ * <p>
+ * It is a SeqScan in every other respect, so the operators above it, and
+ * the cardinality estimates, treat it as a scan of its table.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final Predicate.Op op;
+    private Field operand;
+    private final int indexId;  // the HashIndexFile to look operand up in, or 0 for the BTreeFile
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableId the table to scan, which must be stored in a BTreeFile.
+     * @param tableAlias the alias of this table, see {@link SeqScan#SeqScan}
+     * @param op the operator to compare the key field of the tuples with
+     * @param operand the value to compare the key field of the tuples with
+     * @throws IllegalArgumentException if the table is not a BTreeFile
+     */
+    public IndexScan(TransactionId tid, int tableId, String tableAlias, Predicate.Op op, Field operand) {
+        super(tid, tableId, tableAlias);
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof BTreeFile)) {
+            throw new IllegalArgumentException("Table " + tableId + " has no index");
+        }
+        this.tid = tid;
+        this.op = op;
+        this.operand = operand;
+        this.indexId = 0;
+    }
+
+    /**
+     * Creates a scan of the tuples of the table of the specified hash index
+     * whose indexed field equals key.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param index the index to look key up in
+     * @param tableAlias the alias of the table, see {@link SeqScan#SeqScan}
+     * @param key the value of the indexed field of the tuples to return
+     */
+    public IndexScan(TransactionId tid, HashIndexFile index, String tableAlias, Field key) {
+        super(tid, index.getTableId(), tableAlias);
+        this.tid = tid;
+        this.op = Predicate.Op.EQUALS;
+        this.operand = key;
+        this.indexId = index.getId();
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    public Field getOperand() {
+        return operand;
+    }
+
+    /**
+     * Changes the value the key field is compared with, as IndexNestedLoopJoin
+     * does for each outer tuple; takes effect on the next open() or rewind().
+     * A scan whose operand is null returns no tuples.
+     */
+    void setOperand(Field operand) {
+        this.operand = operand;
+    }
+
+    /** Starts over, looking up the current operand. */
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    DbFileIterator iterator(DbFile file) {
+        if (operand == null) {
+            return new AbstractDbFileIterator() {
+                @Override
+                protected Tuple readNext() {
+                    return null;
+                }
+
+                @Override
+                public void rewind() {
+                }
+            };
+        }
+        if (indexId != 0) {
+            return ((HashIndexFile) Database.getCatalog().getDatabaseFile(indexId)).lookup(tid, operand);
+        }
+        return ((BTreeFile) file).indexIterator(tid, op, operand);
+    }
+}
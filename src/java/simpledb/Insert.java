@@ -14,6 +14,13 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Number of tuples after which the remaining tuples are bulk loaded,
+     * if the table is a HeapFile. Below it, tuples are inserted one by one,
+     * which lets them fill free space in existing pages.
+     */
+    public static final int BULK_LOAD_THRESHOLD = 4096;
+
     private OpIterator child;
     private TupleDesc td;
     private TransactionId tid;
@@ -48,6 +55,19 @@ public class Insert extends Operator {
         try {
             child.open();
             int count = 0;
+            while (child.hasNext() && count < BULK_LOAD_THRESHOLD) {
+                Database.getBufferPool().insertTuple(tid, tableId, child.next());
+                count++;
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            if (child.hasNext() && file instanceof HeapFile) {
+                HeapFile.BulkAppender appender = ((HeapFile) file).bulkAppender(tid);
+                while (child.hasNext()) {
+                    appender.append(child.next());
+                    count++;
+                }
+                appender.close();
+            }
             while (child.hasNext()) {
                 Database.getBufferPool().insertTuple(tid, tableId, child.next());
                 count++;
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntKeyHashTable maps int keys to non-negative int values, e.g. the group
+ * keys of an aggregate to their slots. It is an open-addressing table with
+ * linear probing over parallel arrays of keys and values, so unlike a
+ * HashMap it neither boxes keys nor allocates an entry per key.
+ * <p>
+ * A value of -1 marks an empty bucket, so values must not be negative.
+ */
+class IntKeyHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The value of a key that is not in the table. */
+    static final int MISSING = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public IntKeyHashTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    /** @return the bucket to start probing for key at */
+    private int bucketOf(int key) {
+        return Utility.mixHash(key) & mask;
+    }
+
+    /** @return the bucket that holds key, or the empty bucket it would go in */
+    private int find(int key) {
+        int b = bucketOf(key);
+        while (values[b] != MISSING && keys[b] != key) {
+            b = (b + 1) & mask;
+        }
+        return b;
+    }
+
+    /** @return the value of key, or MISSING if it has none */
+    public int get(int key) {
+        return values[find(key)];
+    }
+
+    /**
+     * Sets the value of key.
+     *
+     * @return the previous value of key, or MISSING if it had none
+     */
+    public int put(int key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        int b = find(key);
+        int old = values[b];
+        if (old == MISSING) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                b = find(key);
+            }
+            keys[b] = key;
+            size++;
+        }
+        values[b] = value;
+        return old;
+    }
+
+    /** Doubles the capacity, keeping the table at most half full. */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(2 * keys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                int b = find(oldKeys[i]);
+                keys[b] = oldKeys[i];
+                values[b] = oldValues[i];
+            }
+        }
+    }
+
+    /** @return the number of keys in the table */
+    public int size() {
+        return size;
+    }
+
+    /** Removes all the keys. */
+    public void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+}
@@ -34,6 +34,8 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is done with the algorithm {@link #orderJoins} chose for lj.
      * 
      * @param lj
      *            The join being considered
@@ -68,7 +70,16 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj instanceof LogicalSubplanJoinNode) {
+            j = new Join(p,plan1,plan2);
+        } else if (lj.algorithm == LogicalJoinNode.Algorithm.INDEX
+                && IndexNestedLoopJoin.canProbe(plan2, t2id, lj.p)) {
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.algorithm == LogicalJoinNode.Algorithm.MERGE && SortMergeJoin.canMerge(lj.p)) {
+            j = new SortMergeJoin(p, SortMergeJoin.sorted(plan1, t1id), SortMergeJoin.sorted(plan2, t2id));
+        } else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
@@ -102,6 +113,22 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true, true);
+    }
+
+    /**
+     * Estimate the cost of a join, see {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * 
+     * @param outerIsTable
+     *            whether the left-hand side is a base table, possibly
+     *            filtered, rather than the result of other joins
+     * @param innerIsTable
+     *            whether the right-hand side is a base table; only then can
+     *            its indexes be probed, and only a base table can be known to
+     *            be sorted on the join field
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean outerIsTable, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
@@ -113,8 +140,138 @@ public class JoinOptimizer {
             // nested-loops join.
 //            System.out.println(String.format("\t\t\t\tkkk joinCost: card1:%d " +
 //                    "card2:%d cost1:%f cost2:%f", card1, card2, cost1, cost2));
-            return cost1 + card1 * cost2 + card1 * card2;
+            return estimateJoinCost(j, chooseAlgorithm(j, card1, card2, cost1, cost2,
+                    outerIsTable, innerIsTable), card1, card2, cost1, cost2, outerIsTable, innerIsTable);
+        }
+    }
+
+    /**
+     * @return the algorithm that does the join at the lowest estimated cost,
+     *         see {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean, boolean)}
+     */
+    LogicalJoinNode.Algorithm chooseAlgorithm(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean outerIsTable, boolean innerIsTable) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOPS;
+        double bestCost = Double.MAX_VALUE;
+        for (LogicalJoinNode.Algorithm a : LogicalJoinNode.Algorithm.values()) {
+            double cost = estimateJoinCost(j, a, card1, card2, cost1, cost2, outerIsTable, innerIsTable);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the estimated cost of doing the join with algorithm a, or
+     *         Double.MAX_VALUE if a can't do it
+     */
+    private double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm a,
+            int card1, int card2, double cost1, double cost2,
+            boolean outerIsTable, boolean innerIsTable) {
+        switch (a) {
+            case INDEX:
+                return innerIsTable ? estimateIndexJoinCost(j, card1, cost1) : Double.MAX_VALUE;
+            case MERGE:
+                return estimateMergeJoinCost(j, card1, card2, cost1, cost2,
+                        outerIsTable && isSortedTable(j.t1Alias, j.f1PureName),
+                        innerIsTable && isSortedTable(j.t2Alias, j.f2PureName));
+            default:
+                return cost1 + card1 * cost2 + card1 * card2;
+        }
+    }
+
+    /**
+     * Estimate the cost of a SortMergeJoin, which reads both sides once.
+     * <p>
+     * It is only considered for an equality join of sides that are already
+     * sorted on their join fields. Sorting the sides first costs n log n
+     * comparisons that aren't comparable to the other algorithms' costs for
+     * small inputs, and for the other comparisons the window of matching
+     * tuples holds up to all of the right-hand side in memory.
+     * 
+     * @return the estimated cost, or Double.MAX_VALUE if a SortMergeJoin
+     *         can't, or won't, do the join
+     */
+    private double estimateMergeJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        if (j.p != Predicate.Op.EQUALS || !(sorted1 && sorted2)) {
+            return Double.MAX_VALUE;
+        }
+        // plus a step per output tuple, see estimateTableJoinCardinality
+        return cost1 + cost2 + card1 + card2 + Math.max(card1, card2);
+    }
+
+    /** @return whether the table of alias is a BTreeFile keyed on field */
+    private boolean isSortedTable(String alias, String field) {
+        Integer tableId = p.getTableId(alias);
+        if (tableId == null) {
+            return false;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        try {
+            return file instanceof BTreeFile && ((BTreeFile) file).keyField()
+                    == Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Estimate the cost of an IndexNestedLoopJoin, which probes an index on
+     * the join field of the right-hand table once per tuple on the left.
+     * <p>
+     * A probe of the BTreeFile the table is stored in reads a page per level
+     * of the tree, and then the leaves that hold the matching tuples next to
+     * each other. A probe of a HashIndexFile reads the directory and the
+     * pages of a bucket, and then a page of the table per matching tuple,
+     * since the index is not clustered.
+     * 
+     * @return the estimated cost, or Double.MAX_VALUE if the table has no
+     *         index that can answer the join predicate
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1) {
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null) {
+            return Double.MAX_VALUE;
+        }
+        TableStats stats = TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
+        }
+        if (stats == null || stats.totalTuples() == 0) {
+            return Double.MAX_VALUE;
+        }
+        Predicate.Op keyOp = IndexNestedLoopJoin.reverse(j.p);
+        double matches = stats.avgSelectivity(field, keyOp) * stats.totalTuples();
+        int pages = Math.max(1, stats.numPages());
+        double probe = Double.MAX_VALUE;
+
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field
+                && j.p != Predicate.Op.LIKE && j.p != Predicate.Op.NOT_EQUALS) {
+            int fanout = BTreeInternalPage.maxKeys(((BTreeFile) file).keyType()) + 1;
+            double height = Math.max(1, Math.ceil(Math.log(pages) / Math.log(fanout)));
+            double tuplesPerPage = (double) stats.totalTuples() / pages;
+            probe = (height + Math.ceil(matches / tuplesPerPage)) * stats.ioCostPerPage();
         }
+        if (j.p == Predicate.Op.EQUALS) {
+            for (HashIndexFile index : Database.getCatalog().getIndexes(tableId)) {
+                if (index.keyField() == field) {
+                    int perPage = HashIndexBucketPage.maxEntries(index.getTupleDesc());
+                    double bucketPages = Math.max(1, Math.ceil(matches / perPage));
+                    probe = Math.min(probe, (1 + bucketPages + matches) * stats.ioCostPerPage());
+                }
+            }
+        }
+        if (probe == Double.MAX_VALUE) {
+            return Double.MAX_VALUE;
+        }
+        return cost1 + card1 * (probe + matches);
     }
 
     /**
@@ -242,6 +399,10 @@ public class JoinOptimizer {
             throws ParsingException {
         // Not necessary for labs 1--2
         // some code goes here
+        if (joins.isEmpty()) {
+            // a single table, e.g. a lookup through an index
+            return joins;
+        }
         PlanCache pc = new PlanCache();
         for (int setSize = 1; setSize <= joins.size(); setSize++) {
 //            System.out.println("kkk setSize: " + setSize);
@@ -407,15 +568,23 @@ public class JoinOptimizer {
             }
         }
 
+        // only a side that is a single table can be probed through an index,
+        // or known to be sorted
+        boolean t1IsTable = news.isEmpty() || !doesJoin(prevBest, j.t1Alias);
+        boolean t2IsTable = news.isEmpty() || !doesJoin(prevBest, j.t2Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t1IsTable, t2IsTable);
+        LogicalJoinNode.Algorithm algorithm = chooseAlgorithm(j, t1card, t2card, t1cost, t2cost,
+                t1IsTable, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t2IsTable, t1IsTable);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
             cost1 = cost2;
+            algorithm = chooseAlgorithm(j2, t2card, t1card, t2cost, t1cost, t2IsTable, t1IsTable);
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
@@ -429,7 +598,8 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        // a copy, since other subplans may do the same join otherwise
+        cc.plan.addElement(j.withAlgorithm(algorithm)); // prevbest is left -- add new join to end
         return cc;
     }
 
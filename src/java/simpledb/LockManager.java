@@ -0,0 +1,406 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager hands out page-level shared and exclusive locks to
+ * transactions, as required for strict two-phase locking.
+ * <p>
+ * A transaction that holds the only shared lock on a page may upgrade it to
+ * an exclusive lock. A request that can't be granted waits until the
+ * conflicting locks are released. Deadlocks are detected, not timed out:
+ * the manager keeps a wait-for graph with an edge from every waiting
+ * transaction to every transaction holding a lock it conflicts with, and a
+ * request that would close a cycle in the graph is refused with a
+ * TransactionAbortedException. The refused transaction is expected to abort
+ * and release its locks, which breaks the cycle.
+ * <p>
+ * The manager also records how long requests had to wait, per page and in
+ * total; see {@link #getWaitStats}.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** The locks held on one page, and the requests waiting for them. */
+    private static class LockState {
+        final Set<TransactionId> sharers = new HashSet<>();
+        TransactionId exclusive;
+        int waiters;
+        final Condition released;
+        final WaitStats stats = new WaitStats();
+
+        LockState(Condition released) {
+            this.released = released;
+        }
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty() && waiters == 0;
+        }
+    }
+
+    /** A pending request of a transaction. */
+    private static class Request {
+        final PageId pid;
+        final boolean exclusive;
+
+        Request(PageId pid, boolean exclusive) {
+            this.pid = pid;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /**
+     * Counters of lock requests that had to wait. A snapshot is returned by
+     * {@link LockManager#getWaitStats}.
+     */
+    public static class WaitStats {
+        private long waits;
+        private long deadlocks;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        /** @return the number of requests that had to wait */
+        public long getWaits() {
+            return waits;
+        }
+
+        /** @return the number of requests refused because of a deadlock */
+        public long getDeadlocks() {
+            return deadlocks;
+        }
+
+        /** @return the total time requests spent waiting, in nanoseconds */
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        /** @return the longest time a single request waited, in nanoseconds */
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        /** @return the average time a waiting request waited, in nanoseconds */
+        public long getAverageWaitNanos() {
+            return waits == 0 ? 0 : totalWaitNanos / waits;
+        }
+
+        private void recordWait(long nanos) {
+            waits++;
+            totalWaitNanos += nanos;
+            maxWaitNanos = Math.max(maxWaitNanos, nanos);
+        }
+
+        private void add(WaitStats other) {
+            waits += other.waits;
+            deadlocks += other.deadlocks;
+            totalWaitNanos += other.totalWaitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, other.maxWaitNanos);
+        }
+
+        private WaitStats copy() {
+            WaitStats s = new WaitStats();
+            s.add(this);
+            return s;
+        }
+
+        public String toString() {
+            return String.format("waits=%d deadlocks=%d avg=%.3fms max=%.3fms", waits, deadlocks,
+                    getAverageWaitNanos() / 1e6, maxWaitNanos / 1e6);
+        }
+    }
+
+    private final ReentrantLock latch = new ReentrantLock();
+    private final Map<PageId, LockState> locks = new HashMap<>();
+    private final Map<TransactionId, Set<PageId>> lockedBy = new HashMap<>();
+    /** The wait-for graph, as the pending requests of each waiting transaction. */
+    private final Map<TransactionId, List<Request>> waiting = new HashMap<>();
+    /** Stats of pages whose LockState has been dropped. */
+    private final WaitStats retiredStats = new WaitStats();
+
+    /**
+     * Acquires a lock on pid for tid, waiting for conflicting locks to be
+     * released. Does nothing if tid already holds a lock of at least the
+     * requested strength.
+     *
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock, or the waiting thread was interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        latch.lock();
+        try {
+            LockState state = locks.get(pid);
+            if (state == null) {
+                state = new LockState(latch.newCondition());
+                locks.put(pid, state);
+            }
+            if (tryGrant(tid, pid, state, exclusive)) {
+                return;
+            }
+
+            Request request = new Request(pid, exclusive);
+            List<Request> requests = waiting.get(tid);
+            if (requests == null) {
+                requests = new ArrayList<>(1);
+                waiting.put(tid, requests);
+            }
+            requests.add(request);
+            state.waiters++;
+            long start = System.nanoTime();
+            try {
+                do {
+                    if (closesCycle(tid)) {
+                        state.stats.deadlocks++;
+                        throw new TransactionAbortedException();
+                    }
+                    try {
+                        state.released.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new TransactionAbortedException();
+                    }
+                } while (!tryGrant(tid, pid, state, exclusive));
+            } finally {
+                // also reached when the thread is stopped while waiting
+                state.waiters--;
+                requests.remove(request);
+                if (requests.isEmpty()) {
+                    waiting.remove(tid);
+                }
+                state.stats.recordWait(System.nanoTime() - start);
+                dropIfFree(pid, state);
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Acquires a lock on pid for tid if that can be done without waiting.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, boolean exclusive) {
+        latch.lock();
+        try {
+            LockState state = locks.get(pid);
+            if (state == null) {
+                state = new LockState(latch.newCondition());
+                locks.put(pid, state);
+            }
+            boolean granted = tryGrant(tid, pid, state, exclusive);
+            dropIfFree(pid, state);
+            return granted;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Releases the lock tid holds on pid, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            releaseLocked(tid, pid);
+            Set<PageId> pages = lockedBy.get(tid);
+            if (pages != null) {
+                pages.remove(pid);
+                if (pages.isEmpty()) {
+                    lockedBy.remove(tid);
+                }
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Releases every lock tid holds.
+     *
+     * @return the pages tid held locks on
+     */
+    public Set<PageId> releaseAll(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<PageId> pages = lockedBy.remove(tid);
+            if (pages == null) {
+                return Collections.emptySet();
+            }
+            for (PageId pid : pages) {
+                releaseLocked(tid, pid);
+            }
+            return pages;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return true if tid holds a shared or exclusive lock on pid */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            Set<PageId> pages = lockedBy.get(tid);
+            return pages != null && pages.contains(pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return true if tid holds an exclusive lock on pid */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            LockState state = locks.get(pid);
+            return state != null && tid.equals(state.exclusive);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return a snapshot of the pages tid holds locks on */
+    public Set<PageId> lockedPages(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<PageId> pages = lockedBy.get(tid);
+            return pages == null ? Collections.<PageId>emptySet() : new HashSet<>(pages);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return the wait statistics of the requests for locks on pid */
+    public WaitStats getWaitStats(PageId pid) {
+        latch.lock();
+        try {
+            LockState state = locks.get(pid);
+            return state == null ? new WaitStats() : state.stats.copy();
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return the wait statistics of all lock requests */
+    public WaitStats getWaitStats() {
+        latch.lock();
+        try {
+            WaitStats total = retiredStats.copy();
+            for (LockState state : locks.values()) {
+                total.add(state.stats);
+            }
+            return total;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** Grants the request if it doesn't conflict with the locks held on the page. */
+    private boolean tryGrant(TransactionId tid, PageId pid, LockState state, boolean exclusive) {
+        if (tid.equals(state.exclusive)) {
+            return true;
+        }
+        if (exclusive) {
+            boolean onlySharer = state.sharers.isEmpty()
+                    || (state.sharers.size() == 1 && state.sharers.contains(tid));
+            if (state.exclusive != null || !onlySharer) {
+                return false;
+            }
+            state.sharers.remove(tid);
+            state.exclusive = tid;
+        } else {
+            if (state.exclusive != null) {
+                return false;
+            }
+            state.sharers.add(tid);
+        }
+        Set<PageId> pages = lockedBy.get(tid);
+        if (pages == null) {
+            pages = new HashSet<>();
+            lockedBy.put(tid, pages);
+        }
+        pages.add(pid);
+        return true;
+    }
+
+    private void releaseLocked(TransactionId tid, PageId pid) {
+        LockState state = locks.get(pid);
+        if (state == null) {
+            return;
+        }
+        if (tid.equals(state.exclusive)) {
+            state.exclusive = null;
+        } else if (!state.sharers.remove(tid)) {
+            return;
+        }
+        state.released.signalAll();
+        dropIfFree(pid, state);
+    }
+
+    /** Forgets the state of pid once nobody holds or waits for a lock on it. */
+    private void dropIfFree(PageId pid, LockState state) {
+        if (state.isFree()) {
+            retiredStats.add(state.stats);
+            locks.remove(pid);
+        }
+    }
+
+    /** @return the transactions holding locks that the request conflicts with */
+    private List<TransactionId> blockers(TransactionId tid, Request request) {
+        LockState state = locks.get(request.pid);
+        List<TransactionId> blockers = new ArrayList<>();
+        if (state == null) {
+            return blockers;
+        }
+        if (state.exclusive != null && !state.exclusive.equals(tid)) {
+            blockers.add(state.exclusive);
+        }
+        if (request.exclusive) {
+            for (TransactionId sharer : state.sharers) {
+                if (!sharer.equals(tid)) {
+                    blockers.add(sharer);
+                }
+            }
+        }
+        return blockers;
+    }
+
+    /**
+     * @return true if the wait-for graph has a path from tid back to itself,
+     *         i.e. tid waits, directly or transitively, for itself
+     */
+    private boolean closesCycle(TransactionId tid) {
+        Set<TransactionId> visited = new HashSet<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        stack.push(tid);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            List<Request> requests = waiting.get(t);
+            if (requests == null) {
+                continue;
+            }
+            for (Request r : requests) {
+                for (TransactionId blocker : blockers(t, r)) {
+                    if (blocker.equals(tid)) {
+                        return true;
+                    }
+                    if (visited.add(blocker)) {
+                        stack.push(blocker);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
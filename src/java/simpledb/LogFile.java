@@ -4,6 +4,11 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -32,6 +37,58 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+Log records are not written to the file as they are appended; they are
+serialized into an in-memory buffer under the LogFile monitor, which is
+held only briefly.  A committing transaction then waits until the log is
+durable up to the end of its commit record.  A single flusher thread
+writes out everything buffered so far with one sequential write and one
+fsync, and releases all the transactions whose records it covered at once,
+so N concurrent commits cost one fsync instead of N.  The flusher can be
+told to linger for a while before it flushes, trading commit latency for
+fewer fsyncs, with the simpledb.LogFile.commitDelayMicros system property;
+-Dsimpledb.LogFile.groupCommit=false makes every commit flush the log
+itself.  See {@link #getStats} for the resulting commit latencies and
+fsync counts.
+<p>
+
+All file I/O happens under a separate I/O lock, which is always taken
+before the LogFile monitor, never after it.  Methods that read the log
+file therefore start with
+<pre>
+    synchronized (ioLock) {
+       flushBuffer(false);
+       synchronized (this) {
+       ..
+</pre>
+
+<u> Checkpoints: </u>
+<p>
+
+Checkpoints are fuzzy: {@link #logCheckpoint} neither flushes the buffer
+pool nor holds its lock, it only logs the running transactions and the
+dirty page table, the pages whose logged changes may not have reached
+their files yet (see {@link #pageWritten}).  Recovery redoes from the
+oldest change in that table, so the redo point moves forward as the
+background writer, or commits in FORCE mode, write those pages out.
+{@link #logTruncate} then drops the part of the log before the redo point
+and the first record of every running transaction.
+<p>
+
+<u> Segments: </u>
+<p>
+
+The records are not kept in the log file itself but in fixed-size,
+preallocated segment files next to it, see {@link LogSegments}.  The
+offset of a record is its log sequence number: segment number times
+simpledb.LogFile.segmentSize, plus the position in the segment.
+Truncating the log only moves the start offset in the log file and hands
+the segments before it to a background thread, which archives them to
+simpledb.LogFile.archiveDir, if set, or recycles them as future
+segments; it never waits for the I/O lock, so it never holds up commits.
 */
 
 /**
@@ -42,8 +99,12 @@ must not be declared synchronized and must begin with a block like:
 <li> The first long integer of the file represents the offset of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The second long integer is the offset of the first record still
+kept.  Offsets are log sequence numbers: they never change once a record
+is written.
+
+<li> The log records follow each other in the segment files, and may
+span segments.  Log records are variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -51,8 +112,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and DELTA
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,11 +122,24 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li>DELTA records log a change to a HeapPage whose full image is
+already in the log since the last checkpoint.  They hold only the
+header bytes and tuple slots that changed, with their before and after
+bytes; see PageDelta.  Redo starts no later than the first change to a
+page that may be missing from its file (see the dirty page table
+below), and applies each delta to the page as rebuilt so far: the after
+image of an earlier UPDATE record of the page, or else the page read
+from its file.  A delta only copies its own bytes, and the other slots
+of that page are up to date either way.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  The active transactions are followed by
+the dirty page table: an integer count of pages, and for each page whose
+logged changes may not be in its file yet, its id (as in
+LogFile.writePageData()) and the offset of the first such change.
 
 </ul>
 
@@ -73,8 +147,83 @@ for each active transaction.
 
 public class LogFile {
 
+    /** System property that turns group commit off if "false". */
+    public static final String GROUP_COMMIT_PROPERTY = "simpledb.LogFile.groupCommit";
+    /** System property: how long, in microseconds, the flusher waits for more commits. */
+    public static final String COMMIT_DELAY_PROPERTY = "simpledb.LogFile.commitDelayMicros";
+    /** System property: the number of threads recover() redoes pages on. */
+    public static final String RECOVERY_THREADS_PROPERTY = "simpledb.LogFile.recoveryThreads";
+    /** System property: the size of a log segment, in bytes. */
+    public static final String SEGMENT_SIZE_PROPERTY = "simpledb.LogFile.segmentSize";
+    /** System property: the directory released log segments are moved to, instead of being recycled. */
+    public static final String ARCHIVE_DIR_PROPERTY = "simpledb.LogFile.archiveDir";
+    /** Default size of a log segment. */
+    public static final long DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+    /**
+     * Commit and flush counters. A snapshot is returned by
+     * {@link LogFile#getStats}.
+     */
+    public static class Stats {
+        private long commits;
+        private long totalCommitNanos;
+        private long maxCommitNanos;
+        private long fsyncs;
+        private long bytesWritten;
+        private long elapsedNanos;
+
+        /** @return the number of commit and abort records made durable */
+        public long getCommits() {
+            return commits;
+        }
+
+        /** @return the average time a commit waited for the log to be durable, in nanoseconds */
+        public long getAverageCommitNanos() {
+            return commits == 0 ? 0 : totalCommitNanos / commits;
+        }
+
+        /** @return the longest time a commit waited for the log to be durable, in nanoseconds */
+        public long getMaxCommitNanos() {
+            return maxCommitNanos;
+        }
+
+        /** @return the number of times the log was forced to disk */
+        public long getFsyncs() {
+            return fsyncs;
+        }
+
+        /** @return the number of log bytes written to the file */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /** @return the average number of times per second the log was forced to disk */
+        public double getFsyncsPerSecond() {
+            return elapsedNanos == 0 ? 0 : fsyncs / (elapsedNanos / 1e9);
+        }
+
+        private Stats copy(long elapsedNanos) {
+            Stats s = new Stats();
+            s.elapsedNanos = elapsedNanos;
+            s.commits = commits;
+            s.totalCommitNanos = totalCommitNanos;
+            s.maxCommitNanos = maxCommitNanos;
+            s.fsyncs = fsyncs;
+            s.bytesWritten = bytesWritten;
+            return s;
+        }
+
+        public String toString() {
+            return String.format("commits=%d avg=%.3fms max=%.3fms fsyncs=%d (%.1f/s) bytes=%d", commits,
+                    getAverageCommitNanos() / 1e6, maxCommitNanos / 1e6, fsyncs, getFsyncsPerSecond(),
+                    bytesWritten);
+        }
+    }
+
     final File logFile;
-    private RandomAccessFile raf;
+    /** The checkpoint and start offsets; guarded by itself, taken after every other lock. */
+    private final RandomAccessFile header;
+    final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,10 +231,13 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    /** Checkpoint offset and the offset of the first record kept. */
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
 
     long currentOffset = -1;//protected by this
 //    int pageSize;
@@ -93,6 +245,32 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // pages with a full image in the log since the last checkpoint,
+    // protected by this
+    private final Set<PageId> imagedPages = new HashSet<PageId>();
+    // dirty page table: pages with logged changes that may not be in their
+    // file yet, mapped to the offset of the first one, protected by this
+    private final Map<PageId, Long> dirtyPages = new HashMap<PageId, Long>();
+    // offset of the first record kept, protected by this
+    private long baseOffset = 0;
+
+    /** Guards writing the segments; taken before the LogFile monitor. */
+    final Object ioLock = new Object();
+    /** Records appended but not yet written to the file. protected by this */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 16);
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private long writtenOffset = 0;   // end of the bytes written to the segments, protected by this
+    private long durableOffset = 0;   // end of the bytes forced to disk, protected by this
+    private long requestedOffset = 0; // end of the bytes someone waits for, protected by this
+    private boolean truncatePending = false; // protected by this
+    private final Stats stats = new Stats();  // protected by this
+    private final long createdNanos = System.nanoTime();
+
+    private final boolean groupCommit;
+    private final long commitDelayNanos;
+    private Thread flusher;           // protected by this
+    private boolean closed = false;   // protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -106,8 +284,19 @@ public class LogFile {
     */
     public LogFile(File f) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        header = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, Long.getLong(SEGMENT_SIZE_PROPERTY, DEFAULT_SEGMENT_SIZE),
+                System.getProperty(ARCHIVE_DIR_PROPERTY) == null ? null
+                        : new File(System.getProperty(ARCHIVE_DIR_PROPERTY)));
         recoveryUndecided = true;
+        if (header.length() >= HEADER_SIZE) {
+            header.seek(LONG_SIZE);
+            baseOffset = header.readLong();
+        }
+        // the end of the log is only known after recover() has read it
+        writtenOffset = durableOffset = baseOffset;
+        groupCommit = !"false".equals(System.getProperty(GROUP_COMMIT_PROPERTY));
+        commitDelayNanos = 1000L * Long.getLong(COMMIT_DELAY_PROPERTY, 0L);
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -123,15 +312,215 @@ public class LogFile {
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
-    void preAppend() throws IOException {
+    // The new log starts in a segment that was never written, and the old
+    // segments are released by the next flushBuffer().
+    synchronized void preAppend() throws IOException {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            buffer.reset();
+            imagedPages.clear();
+            dirtyPages.clear();
+            baseOffset = segments.freshStart();
+            writtenOffset = baseOffset;
+            durableOffset = baseOffset;
+            requestedOffset = baseOffset;
+            truncatePending = true;
+            currentOffset = logEnd();
+        }
+    }
+
+    /** @return the offset just past the last appended record. protected by this */
+    private long logEnd() {
+        return writtenOffset + buffer.size();
+    }
+
+    /** Writes the checkpoint and start offsets to the log file, and forces them to disk. */
+    private void writeHeader(long cpOffset, long startOffset) throws IOException {
+        synchronized (header) {
+            header.seek(0);
+            header.writeLong(cpOffset);
+            header.writeLong(startOffset);
+            header.getChannel().force(true);
+        }
+    }
+
+    /** @return the offset of the last checkpoint, or NO_CHECKPOINT_ID */
+    private long readCheckpointOffset() throws IOException {
+        synchronized (header) {
+            if (header.length() < HEADER_SIZE) {
+                return NO_CHECKPOINT_ID;
+            }
+            header.seek(0);
+            return header.readLong();
+        }
+    }
+
+    /**
+     * Writes the buffered records to the file, and forces them to disk if
+     * fsync is set.
+     */
+    void flushBuffer(boolean fsync) throws IOException {
+        synchronized (ioLock) {
+            byte[] bytes;
+            long start;
+            boolean truncate;
+            synchronized (this) {
+                bytes = buffer.toByteArray();
+                buffer.reset();
+                start = writtenOffset;
+                writtenOffset += bytes.length;
+                truncate = truncatePending;
+                truncatePending = false;
+            }
+            if (truncate) {
+                // a new log; throw out the old one
+                writeHeader(NO_CHECKPOINT_ID, start);
+                segments.release(start);
+            }
+            if (bytes.length > 0) {
+                segments.write(start, bytes);
+            }
+            if (fsync) {
+                segments.force();
+            }
+            synchronized (this) {
+                stats.bytesWritten += bytes.length;
+                if (fsync) {
+                    stats.fsyncs++;
+                    durableOffset = Math.max(durableOffset, start + bytes.length);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the log is on disk up to offset. With group commit, the
+     * flusher thread does the flushing, for everyone waiting at once.
+     */
+    private void waitDurable(long offset) throws IOException {
+        if (!groupCommit) {
+            synchronized (this) {
+                if (durableOffset >= offset) {
+                    return;
+                }
+            }
+            flushBuffer(true);
+            return;
+        }
+        synchronized (this) {
+            if (durableOffset >= offset) {
+                return;
+            }
+            if (flusher == null) {
+                flusher = new Thread(this::runFlusher, "simpledb-log-flusher");
+                flusher.setDaemon(true);
+                flusher.start();
+            }
+            if (offset > requestedOffset) {
+                requestedOffset = offset;
+                notifyAll();
+            }
+            boolean interrupted = false;
+            while (durableOffset < offset) {
+                if (closed) {
+                    throw new IOException("log file closed");
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Appends a COMMIT or ABORT record.
+     * @return the offset just past the record
+     */
+    private synchronized long appendCompletion(int type, long tid) throws IOException {
+        preAppend();
+        out.writeInt(type);
+        out.writeLong(tid);
+        out.writeLong(currentOffset);
+        currentOffset = logEnd();
+        tidToFirstLogRecord.remove(tid);
+        return currentOffset;
+    }
+
+    /** Appends a COMMIT or ABORT record and waits until it is durable. */
+    private void logCompletion(int type, TransactionId tid) throws IOException {
+        long start = System.nanoTime();
+        long end = appendCompletion(type, tid.getId());
+        waitDurable(end);
+        long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            stats.commits++;
+            stats.totalCommitNanos += nanos;
+            stats.maxCommitNanos = Math.max(stats.maxCommitNanos, nanos);
+        }
+    }
+
+    private void runFlusher() {
+        while (true) {
+            synchronized (this) {
+                while (requestedOffset <= durableOffset && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            if (commitDelayNanos > 0) {
+                // let more transactions join this flush
+                LockSupport.parkNanos(commitDelayNanos);
+            }
+            try {
+                flushBuffer(true);
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    // wake the waiters; they will find the log closed
+                    closed = true;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /** @return a snapshot of the commit and flush counters */
+    public synchronized Stats getStats() {
+        return stats.copy(System.nanoTime() - createdNanos);
+    }
+
+    /**
+     * Stops the flusher thread without writing anything more, and closes
+     * the files. Used when the Database is reset.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        synchronized (ioLock) {
+            try {
+                segments.close();
+                synchronized (header) {
+                    header.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -148,23 +537,14 @@ public class LogFile {
         // calls rollback
 
         synchronized (Database.getBufferPool()) {
+            //Debug.log("ABORT");
+            //should we verify that this is a live transaction?
 
-            synchronized(this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
-
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord)
+            rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
-            }
+            logCompletion(ABORT_RECORD, tid);
         }
     }
 
@@ -173,21 +553,19 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
+    public void logCommit(TransactionId tid) throws IOException {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+        logCompletion(COMMIT_RECORD, tid);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
         (with provided         before and after images.)
+        If the page is a HeapPage that already has a full image in the log
+        since the last checkpoint, only the changed slots are logged, in a
+        DELTA record.
+        The record is only buffered; call {@link #force} to make it durable.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -197,30 +575,56 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        Debug.log("WRITE, offset = " + logEnd());
+        PageId pid = after.getId();
+        if (after instanceof HeapPage && before instanceof HeapPage && imagedPages.contains(pid)) {
+            /* delta record consists of
+
+               record type
+               transaction id
+               changed header bytes and slots (see PageDelta)
+               start offset
+            */
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            PageDelta.diff((HeapPage) before, (HeapPage) after).write(out);
+        } else {
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start offset
+            */
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out,before);
+            writePageData(out,after);
+            imagedPages.add(pid);
+        }
+        if (!dirtyPages.containsKey(pid)) {
+            dirtyPages.put(pid, currentOffset);
+        }
+        out.writeLong(currentOffset);
+        currentOffset = logEnd();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /**
+     * Tells the log that pid has been written to its file, with every change
+     * logged for it so far. The caller must hold a lock that keeps the page
+     * from being logged again until this returns.
+     */
+    public synchronized void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
 
         //page data is:
         // page class name
@@ -231,68 +635,32 @@ public class LogFile {
         // page class data
 
         String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
 
         raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
+        writePageId(raf, pid);
         byte[] pageData = p.getPageData();
         raf.writeInt(pageData.length);
         raf.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+    /** Writes pid as its class name and serialized ints, see LogRecord.readPageId. */
+    static void writePageId(DataOutput out, PageId pid) throws IOException {
+        int pageInfo[] = pid.serialize();
+        out.writeUTF(pid.getClass().getName());
+        out.writeInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            out.writeInt(pageInfo[i]);
         }
-        return newPage;
+    }
 
+    Page readPageData(RandomAccessFile raf) throws IOException {
+        String pageClassName = raf.readUTF();
+        PageId pid = LogRecord.readPageId(raf);
+        int pageSize = raf.readInt();
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData); //read before image
+        return LogRecord.newPage(pageClassName, pid, pageData);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,150 +675,132 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = logEnd();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+        The checkpoint is fuzzy: it flushes no pages and holds no lock
+        but the LogFile's while it builds the record, so transactions keep
+        running.  The record lists the running transactions and the dirty
+        page table.  The background writer, if there is one, is then woken
+        up to write out the pages in that table, which moves the redo point
+        of the next checkpoint forward.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        long startCpOffset;
+        long end;
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + logEnd());
+            preAppend();
+            startCpOffset = logEnd();
+            imagedPages.clear();
+            out.writeInt(CHECKPOINT_RECORD);
+            out.writeLong(-1); //no tid , but leave space for convenience
+
+            //write list of outstanding transactions
+            out.writeInt(tidToFirstLogRecord.size());
+            for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                out.writeLong(e.getKey());
+                out.writeLong(e.getValue());
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+                writePageId(out, e.getKey());
+                out.writeLong(e.getValue());
+            }
+            out.writeLong(currentOffset);
+            currentOffset = end = logEnd();
+            //Debug.log("CP OFFSET = " + currentOffset);
+        }
+        waitDurable(end);
+
+        //once the CP is on disk, make sure the CP location at the
+        // beginning of the log file is updated, unless a later checkpoint
+        // got there first
+        synchronized (header) {
+            header.seek(0);
+            if (header.readLong() < startCpOffset) {
+                header.seek(0);
+                header.writeLong(startCpOffset);
+                header.getChannel().force(true);
             }
         }
 
+        BackgroundWriter writer = Database.getBufferPool().getWriter();
+        if (writer != null) {
+            writer.wakeUp();
+        }
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
+        consumption.
+        <p>
+        Everything before the redo point of the last checkpoint and the
+        first record of every running transaction can go.  The start
+        offset in the log file is moved there, and the segments wholly
+        before it are released to the background thread of
+        {@link LogSegments}.  Only finding the truncation point takes the
+        I/O lock, for as long as it takes to read the checkpoint record.
+    */
+    public void logTruncate() throws IOException {
+        long keepFrom;
+        synchronized (ioLock) {
+            flushBuffer(false);
+            synchronized (this) {
+                preAppend();
+                keepFrom = truncationPoint();
+                if (keepFrom / segments.segmentSize <= baseOffset / segments.segmentSize) {
+                    return;
                 }
             }
         }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+        synchronized (header) {
+            header.seek(LONG_SIZE);
+            if (header.readLong() >= keepFrom) {
+                return; // a concurrent truncation got further
             }
+            header.seek(LONG_SIZE);
+            header.writeLong(keepFrom);
+            header.getChannel().force(true);
         }
+        synchronized (this) {
+            baseOffset = Math.max(baseOffset, keepFrom);
+        }
+        Debug.log("TRUNCATING LOG; NEW START : " + keepFrom);
+        segments.release(keepFrom);
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+    /**
+     * @return the offset of the oldest record recovery or rollback may
+     *         still need. Caller holds ioLock and this.
+     */
+    private long truncationPoint() throws IOException {
+        long cpLoc = readCheckpointOffset();
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return baseOffset;
+        }
+        LogRecord cp = readRecord(cpLoc);
+        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+            throw new IOException("Checkpoint pointer does not point to checkpoint record");
+        }
+        long min = cp.redoPoint();
+        for (Long first : cp.active.values()) {
+            min = Math.min(min, first);
+        }
+        for (Long first : tidToFirstLogRecord.values()) {
+            min = Math.min(min, first);
+        }
+        return min;
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -458,15 +808,48 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        The transaction's UPDATE and DELTA records are undone on the
+        pages on disk, newest first, and the pages are dropped from the
+        buffer pool so they are read back in their restored state.
+        Pages whose committed changes are still queued for the
+        background writer stay in the pool; BufferPool restores them.
 
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+            synchronized (ioLock) {
+                flushBuffer(false);
+                synchronized(this) {
+                    preAppend();
+                    Long first = tidToFirstLogRecord.get(tid.getId());
+                    if (first == null) {
+                        throw new NoSuchElementException("transaction " + tid.getId() + " has no log records");
+                    }
+                    // records carry no back pointer per transaction, so
+                    // scan forward from its first record
+                    final long xid = tid.getId();
+                    final List<LogRecord> records = new ArrayList<LogRecord>();
+                    scan(first, r -> {
+                        if (r.tid == xid && r.changesPage()) {
+                            records.add(r);
+                        }
+                    });
+                    Map<PageId, RecoveredPage> pages = new HashMap<PageId, RecoveredPage>();
+                    for (int i = records.size() - 1; i >= 0; i--) {
+                        apply(pages, records.get(i), true);
+                    }
+                    writePages(pages);
+
+                    BackgroundWriter writer = Database.getBufferPool().getWriter();
+                    for (PageId pid : pages.keySet()) {
+                        if (writer == null || writer.committer(pid) == null) {
+                            Database.getBufferPool().discardPage(pid);
+                        }
+                    }
+                }
             }
         }
     }
@@ -475,10 +858,10 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,23 +871,336 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery runs in three passes, as in ARIES:
+        <ul>
+        <li> Analysis reads the log from the redo point of the last
+        checkpoint, or from the first record of a transaction active at
+        that checkpoint, and finds the losers: transactions without a
+        COMMIT or ABORT record.
+        <li> Redo repeats history from the redo point: the checkpoint, or
+        the oldest change in its dirty page table if that is earlier.  It
+        applies the UPDATE and DELTA records of every transaction except
+        those that aborted: their rollback already undid them on disk,
+        without logging it.
+        <li> Undo reverts the losers' records, newest first.
+        </ul>
+        Redo and undo are partitioned by page over
+        simpledb.LogFile.recoveryThreads threads (default: one per
+        processor): each thread owns the pages hashed to it, applies their
+        records in log order in memory, and writes each page once at the
+        end.  Finally an ABORT record is logged for each loser, and a
+        partly written record at the end of the log is cut off.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+            synchronized (ioLock) {
+                synchronized (this) {
+                    recoveryUndecided = false;
+                    buffer.reset();
+                    truncatePending = false;
+                    imagedPages.clear();
+                    dirtyPages.clear();
+                    tidToFirstLogRecord.clear();
+                    long cpLoc;
+                    synchronized (header) {
+                        if (header.length() < HEADER_SIZE) {
+                            writeHeader(NO_CHECKPOINT_ID, segments.freshStart());
+                        }
+                        header.seek(0);
+                        cpLoc = header.readLong();
+                        baseOffset = header.readLong();
+                    }
+
+                    // analysis
+                    long redoStart = baseOffset;
+                    long scanStart = baseOffset;
+                    final Set<Long> losers = new HashSet<Long>();
+                    final Set<Long> aborted = new HashSet<Long>();
+                    if (cpLoc != NO_CHECKPOINT_ID) {
+                        LogRecord cp = readRecord(cpLoc);
+                        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+                            throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                        }
+                        redoStart = scanStart = cp.redoPoint();
+                        for (Map.Entry<Long, Long> e : cp.active.entrySet()) {
+                            losers.add(e.getKey());
+                            scanStart = Math.min(scanStart, e.getValue());
+                        }
+                    }
+                    long end = scan(scanStart, r -> {
+                        switch (r.type) {
+                        case BEGIN_RECORD:
+                            losers.add(r.tid);
+                            break;
+                        case COMMIT_RECORD:
+                            losers.remove(r.tid);
+                            break;
+                        case ABORT_RECORD:
+                            losers.remove(r.tid);
+                            aborted.add(r.tid);
+                            break;
+                        }
+                    });
+
+                    // redo, then undo
+                    final long redoFrom = redoStart;
+                    final List<LogRecord> undo = new ArrayList<LogRecord>();
+                    final RecoveryWorkers workers = new RecoveryWorkers(
+                            Integer.getInteger(RECOVERY_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+                    Set<PageId> written;
+                    try {
+                        scan(scanStart, r -> {
+                            if (!r.changesPage() || aborted.contains(r.tid)) {
+                                return;
+                            }
+                            if (r.offset >= redoFrom) {
+                                workers.submit(r, false);
+                            }
+                            if (losers.contains(r.tid)) {
+                                undo.add(r);
+                            }
+                        });
+                        for (int i = undo.size() - 1; i >= 0; i--) {
+                            workers.submit(undo.get(i), true);
+                        }
+                        written = workers.finish();
+                    } finally {
+                        workers.shutdown();
+                    }
+                    for (PageId pid : written) {
+                        Database.getBufferPool().discardPage(pid);
+                    }
+
+                    segments.cutOff(end);
+                    writtenOffset = durableOffset = requestedOffset = currentOffset = end;
+                    for (Long tid : losers) {
+                        appendCompletion(ABORT_RECORD, tid);
+                    }
+                    flushBuffer(true);
+                }
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (ioLock) {
+            flushBuffer(false);
+            synchronized (this) {
+                System.out.println("CHECKPOINT AT " + readCheckpointOffset());
+                scan(baseOffset, r -> System.out.println(r));
+            }
+        }
+    }
+
+    /** Visits the records of the log, in order. */
+    private interface RecordVisitor {
+        void visit(LogRecord r) throws IOException;
+    }
+
+    /**
+     * Reads the records from offset on, up to the end of the log or the
+     * first record that is cut off or garbled. Caller holds ioLock and this.
+     * @return the offset just past the last record read
+     */
+    private long scan(long offset, RecordVisitor visitor) throws IOException {
+        InputStream is = segments.read(offset);
+        try {
+            PositionInputStream pos = new PositionInputStream(new BufferedInputStream(is, 1 << 16), offset);
+            DataInputStream in = new DataInputStream(pos);
+            long end = offset;
+            LogRecord r;
+            while ((r = LogRecord.read(in, end)) != null) {
+                end = pos.position;
+                visitor.visit(r);
+            }
+            return end;
+        } finally {
+            is.close();
+        }
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** @return the record at offset, or null if there is none. Caller holds ioLock and this. */
+    private LogRecord readRecord(long offset) throws IOException {
+        InputStream is = segments.read(offset);
+        try {
+            return LogRecord.read(new DataInputStream(new BufferedInputStream(is)), offset);
+        } finally {
+            is.close();
+        }
+    }
+
+    /** Counts the bytes read through it. */
+    private static class PositionInputStream extends FilterInputStream {
+        long position;
+
+        PositionInputStream(InputStream in, long position) {
+            super(in);
+            this.position = position;
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+
+    /** A page being recovered: its class and its bytes so far. */
+    private static class RecoveredPage {
+        String pageClass;
+        byte[] data;
+    }
+
+    /** @return the file of pid's table, or null if the catalog doesn't know it */
+    private static DbFile fileOf(PageId pid) {
+        try {
+            return Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Redoes or undoes r on its page in pages, reading the page from disk
+     * first if it is not there yet and r doesn't replace it outright.
+     * Records of tables missing from the catalog are skipped.
+     */
+    private static void apply(Map<PageId, RecoveredPage> pages, LogRecord r, boolean undo) {
+        RecoveredPage p = pages.get(r.pid);
+        if (p == null) {
+            DbFile f = fileOf(r.pid);
+            if (f == null) {
+                return;
+            }
+            p = new RecoveredPage();
+            p.pageClass = HeapPage.class.getName();
+            if (r.delta != null || undo) {
+                if (r.pid.getPageNumber() < f.numPages()) {
+                    Page onDisk = f.readPage(r.pid);
+                    p.pageClass = onDisk.getClass().getName();
+                    p.data = onDisk.getPageData();
+                } else {
+                    // the page was added to the file but never written
+                    p.data = new byte[BufferPool.getPageSize()];
+                }
+            }
+            pages.put(r.pid, p);
+        }
+        p.data = undo ? r.undo(p.data) : r.redo(p.data);
+        if (r.pageClass != null) {
+            p.pageClass = r.pageClass;
+        }
+    }
+
+    /** Writes the recovered pages to their files. */
+    private static void writePages(Map<PageId, RecoveredPage> pages) throws IOException {
+        for (Map.Entry<PageId, RecoveredPage> e : pages.entrySet()) {
+            Page page = LogRecord.newPage(e.getValue().pageClass, e.getKey(), e.getValue().data);
+            fileOf(e.getKey()).writePage(page);
+        }
+    }
+
+    /**
+     * Applies records to pages on a pool of threads. Records are
+     * partitioned by page: the records of a page are all applied, in the
+     * order they were submitted, by the one thread that owns the page.
+     */
+    private static class RecoveryWorkers {
+        private final ExecutorService[] threads;
+        private final List<Map<PageId, RecoveredPage>> pages = new ArrayList<Map<PageId, RecoveredPage>>();
+        private volatile Exception failure;
+
+        RecoveryWorkers(int n) {
+            threads = new ExecutorService[Math.max(1, n)];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = Executors.newSingleThreadExecutor();
+                pages.add(new HashMap<PageId, RecoveredPage>());
+            }
+        }
+
+        void submit(final LogRecord r, final boolean undo) {
+            final int i = (r.pid.hashCode() & Integer.MAX_VALUE) % threads.length;
+            threads[i].execute(() -> {
+                if (failure != null) {
+                    return;
+                }
+                try {
+                    apply(pages.get(i), r, undo);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            });
+        }
+
+        /**
+         * Waits for the submitted records to be applied and writes the pages.
+         * @return the pages written
+         */
+        Set<PageId> finish() throws IOException {
+            List<Future<?>> done = new ArrayList<Future<?>>();
+            for (int i = 0; i < threads.length; i++) {
+                final Map<PageId, RecoveredPage> mine = pages.get(i);
+                done.add(threads[i].submit(() -> {
+                    if (failure == null) {
+                        writePages(mine);
+                    }
+                    return null;
+                }));
+            }
+            Set<PageId> written = new HashSet<PageId>();
+            try {
+                for (Future<?> f : done) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException("recovery failed", e.getCause());
+            }
+            if (failure != null) {
+                throw new IOException("recovery failed", failure);
+            }
+            for (Map<PageId, RecoveredPage> m : pages) {
+                written.addAll(m.keySet());
+            }
+            return written;
+        }
+
+        void shutdown() {
+            for (ExecutorService t : threads) {
+                t.shutdownNow();
+            }
+        }
+    }
+
+    /** Force every record appended so far to disk. */
+    public void force() throws IOException {
+        long end;
+        synchronized (this) {
+            end = logEnd();
+        }
+        waitDurable(end);
     }
 
 }
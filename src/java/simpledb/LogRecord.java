@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LogRecord is a record of the log file as read back by recovery, rollback
+ * and {@link LogFile#print}. Page images are kept as bytes, so a record can
+ * be read without the catalog knowing its table; {@link #newPage} turns
+ * them back into a Page.
+ *
+ * @see LogFile
+ */
+class LogRecord {
+
+    /** Offset (log sequence number) the record starts at. */
+    final long offset;
+    final int type;
+    final long tid;
+
+    /** The page an UPDATE or DELTA record changes; null otherwise. */
+    final PageId pid;
+    /** Class name, before and after bytes of the page of an UPDATE record. */
+    final String pageClass;
+    final byte[] before;
+    final byte[] after;
+    /** The change a DELTA record makes. */
+    final PageDelta delta;
+    /** Transactions active at a CHECKPOINT, mapped to their first record. */
+    final Map<Long, Long> active;
+    /** The dirty page table of a CHECKPOINT: pages mapped to their first change not known to be on disk. */
+    final Map<PageId, Long> dirty;
+
+    private LogRecord(long offset, int type, long tid, PageId pid, String pageClass, byte[] before,
+            byte[] after, PageDelta delta, Map<Long, Long> active, Map<PageId, Long> dirty) {
+        this.offset = offset;
+        this.type = type;
+        this.tid = tid;
+        this.pid = pid;
+        this.pageClass = pageClass;
+        this.before = before;
+        this.after = after;
+        this.delta = delta;
+        this.active = active;
+        this.dirty = dirty;
+    }
+
+    /** @return true for the records that change a page, UPDATE and DELTA */
+    boolean changesPage() {
+        return pid != null;
+    }
+
+    /**
+     * @return the offset redo starts from when this CHECKPOINT is the last
+     *         one: the checkpoint, or its oldest dirty page change
+     */
+    long redoPoint() {
+        long min = offset;
+        for (Long first : dirty.values()) {
+            min = Math.min(min, first);
+        }
+        return min;
+    }
+
+    /**
+     * Reads the record starting at offset.
+     *
+     * @return the record, or null if the log ends before the record does
+     *         (e.g. the last record was only partly written in a crash) or
+     *         the record is not well formed
+     */
+    static LogRecord read(DataInput in, long offset) throws IOException {
+        try {
+            int type = in.readInt();
+            long tid = in.readLong();
+            PageId pid = null;
+            String pageClass = null;
+            byte[] before = null;
+            byte[] after = null;
+            PageDelta delta = null;
+            Map<Long, Long> active = null;
+            Map<PageId, Long> dirty = null;
+            switch (type) {
+            case LogFile.ABORT_RECORD:
+            case LogFile.COMMIT_RECORD:
+            case LogFile.BEGIN_RECORD:
+                break;
+            case LogFile.UPDATE_RECORD:
+                pageClass = in.readUTF();
+                pid = readPageId(in);
+                before = readBytes(in);
+                String afterClass = in.readUTF();
+                PageId afterPid = readPageId(in);
+                after = readBytes(in);
+                if (!pageClass.equals(afterClass) || !pid.equals(afterPid)) {
+                    return null;
+                }
+                break;
+            case LogFile.DELTA_RECORD:
+                delta = PageDelta.read(in);
+                pid = delta.pid;
+                break;
+            case LogFile.CHECKPOINT_RECORD:
+                int n = in.readInt();
+                active = new HashMap<Long, Long>();
+                for (int i = 0; i < n; i++) {
+                    long xid = in.readLong();
+                    active.put(xid, in.readLong());
+                }
+                int pages = in.readInt();
+                dirty = new HashMap<PageId, Long>();
+                for (int i = 0; i < pages; i++) {
+                    PageId dirtyPid = readPageId(in);
+                    dirty.put(dirtyPid, in.readLong());
+                }
+                break;
+            default:
+                return null;
+            }
+            if (in.readLong() != offset) {
+                return null;
+            }
+            return new LogRecord(offset, type, tid, pid, pageClass, before, after, delta, active, dirty);
+        } catch (EOFException e) {
+            return null;
+        } catch (UTFDataFormatException e) {
+            // garbage where the record's names or lengths should be
+            return null;
+        } catch (NegativeArraySizeException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Redoes this UPDATE or DELTA record on page, the bytes of pid.
+     * @return the bytes of the page after the change; may be page itself
+     */
+    byte[] redo(byte[] page) {
+        if (delta != null) {
+            delta.redo(page);
+            return page;
+        }
+        return after.clone();
+    }
+
+    /**
+     * Undoes this UPDATE or DELTA record on page, the bytes of pid.
+     * @return the bytes of the page before the change; may be page itself
+     */
+    byte[] undo(byte[] page) {
+        if (delta != null) {
+            delta.undo(page);
+            return page;
+        }
+        return before.clone();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(offset).append(": ");
+        switch (type) {
+        case LogFile.ABORT_RECORD: sb.append("ABORT"); break;
+        case LogFile.COMMIT_RECORD: sb.append("COMMIT"); break;
+        case LogFile.BEGIN_RECORD: sb.append("BEGIN"); break;
+        case LogFile.UPDATE_RECORD: sb.append("UPDATE"); break;
+        case LogFile.DELTA_RECORD: sb.append("DELTA"); break;
+        case LogFile.CHECKPOINT_RECORD: sb.append("CHECKPOINT"); break;
+        }
+        if (type != LogFile.CHECKPOINT_RECORD) {
+            sb.append(" tid ").append(tid);
+        }
+        if (pid != null) {
+            sb.append(" page ").append(pid.getTableId()).append(':').append(pid.getPageNumber());
+        }
+        if (active != null) {
+            sb.append(" active ").append(active);
+        }
+        if (dirty != null) {
+            sb.append(" dirty ").append(dirty);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return b;
+    }
+
+    /** Reads a PageId as written by LogFile.writePageData. */
+    static PageId readPageId(DataInput in) throws IOException {
+        String idClassName = in.readUTF();
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
+            int numIdArgs = in.readInt();
+            Object idArgs[] = new Object[numIdArgs];
+            for (int i = 0; i < numIdArgs; i++) {
+                idArgs[i] = Integer.valueOf(in.readInt());
+            }
+            return (PageId) idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("unknown page id class " + idClassName, e);
+        } catch (InstantiationException e) {
+            throw new IOException(e);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Creates a page of class pageClassName from its bytes, through its
+     * (PageId, byte[]) constructor.
+     */
+    static Page newPage(String pageClassName, PageId pid, byte[] data) throws IOException {
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    return (Page) c.newInstance(pid, data);
+                }
+            }
+            throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("unknown page class " + pageClassName, e);
+        } catch (InstantiationException e) {
+            throw new IOException(e);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException(e);
+        }
+    }
+}
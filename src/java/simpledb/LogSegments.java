@@ -0,0 +1,420 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogSegments stores the bytes of a {@link LogFile} in fixed-size segment
+ * files next to it, named after it: segment n of log "log" is "log.n".
+ * Log sequence number lsn is byte lsn % segmentSize of segment
+ * lsn / segmentSize; records may span segments.
+ * <p>
+ * Segments are preallocated at their full size, and zero-filled, before
+ * they are written, so writing the log never extends a file and the log
+ * only needs {@code force(false)} to be durable. A background thread
+ * prepares the segment after the one being written to. Segments the log no
+ * longer needs are {@link #release released}: the background thread moves
+ * them to the archive directory if there is one, or else keeps up to
+ * {@link #MAX_SPARES} of them as spares, to be renamed into new segments
+ * instead of allocating them, and deletes the rest.
+ * <p>
+ * A spare is never renamed back to the number it had, so the stale records
+ * in a recycled segment never carry the right offset for their new place
+ * and are rejected when the log is read. Segments that may hold records
+ * past the end of the log, after a crash, are deleted instead.
+ *
+ * @Threadsafe
+ */
+class LogSegments {
+
+    /** Number of released segments kept for reuse. */
+    static final int MAX_SPARES = 2;
+
+    private static final int ZEROS = 1 << 16;
+
+    private final File dir;
+    private final String name;
+    final long segmentSize;
+    private final File archiveDir; // null to recycle released segments
+
+    private final Map<Long, RandomAccessFile> open = new TreeMap<>(); // protected by this
+    private final Set<Long> unforced = new HashSet<>();               // protected by this
+    private final Deque<File> spares = new ArrayDeque<>();            // protected by this
+    private long maxSegment = -1;   // highest segment on disk, protected by this
+    private long prepared = -1;     // highest segment handed to the background, protected by this
+    private final ExecutorService background;
+
+    /**
+     * @param log the log file the segments belong to
+     * @param segmentSize the size of a segment, in bytes
+     * @param archiveDir where released segments go, or null to recycle them
+     */
+    LogSegments(File log, long segmentSize, File archiveDir) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segment size must be positive: " + segmentSize);
+        }
+        File abs = log.getAbsoluteFile();
+        this.dir = abs.getParentFile();
+        this.name = abs.getName();
+        this.segmentSize = segmentSize;
+        this.archiveDir = archiveDir;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String n = f.getName();
+                if (!n.startsWith(name + ".")) {
+                    continue;
+                }
+                String suffix = n.substring(name.length() + 1);
+                if (suffix.matches("spare[0-9]+") && f.length() == segmentSize) {
+                    spares.add(f);
+                } else if (suffix.startsWith("spare") || suffix.startsWith("prealloc")) {
+                    // left over from a crash, or from another segment size
+                    f.delete();
+                } else if (suffix.matches("[0-9]+")) {
+                    maxSegment = Math.max(maxSegment, Long.parseLong(suffix));
+                }
+            }
+        }
+        background = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "simpledb-log-segments");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** @return the file of segment seg */
+    File segmentFile(long seg) {
+        return new File(dir, String.format("%s.%08d", name, seg));
+    }
+
+    /** @return the lsn of the start of the first segment that was never on disk */
+    synchronized long freshStart() {
+        return (maxSegment + 1) * segmentSize;
+    }
+
+    /**
+     * Writes bytes at lsn. Callers write the log in order, and don't write
+     * concurrently.
+     */
+    void write(long lsn, byte[] bytes) throws IOException {
+        int off = 0;
+        while (off < bytes.length) {
+            long seg = lsn / segmentSize;
+            long pos = lsn % segmentSize;
+            int n = (int) Math.min(bytes.length - off, segmentSize - pos);
+            FileChannel ch = channel(seg);
+            ByteBuffer buf = ByteBuffer.wrap(bytes, off, n);
+            while (buf.hasRemaining()) {
+                ch.write(buf, pos + buf.position() - off);
+            }
+            synchronized (this) {
+                unforced.add(seg);
+            }
+            off += n;
+            lsn += n;
+        }
+    }
+
+    /** Forces the segments written since the last call to disk. */
+    void force() throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        synchronized (this) {
+            for (Long seg : unforced) {
+                RandomAccessFile raf = open.get(seg);
+                if (raf != null) {
+                    channels.add(raf.getChannel());
+                }
+            }
+            unforced.clear();
+        }
+        for (FileChannel ch : channels) {
+            // preallocated, so there is no file size to update
+            ch.force(false);
+        }
+    }
+
+    /** Writes zeros from lsn to the end of its segment, and deletes the later segments. */
+    void cutOff(long lsn) throws IOException {
+        long seg = lsn / segmentSize;
+        long pos = lsn % segmentSize;
+        FileChannel ch = channel(seg);
+        ByteBuffer zeros = ByteBuffer.allocate(ZEROS);
+        while (pos < segmentSize) {
+            zeros.clear();
+            zeros.limit((int) Math.min(ZEROS, segmentSize - pos));
+            pos += ch.write(zeros, pos);
+        }
+        ch.force(false);
+        synchronized (this) {
+            // they may hold records written after a torn one, with the
+            // right offsets, so they can't be recycled either
+            for (long s = seg + 1; s <= maxSegment; s++) {
+                RandomAccessFile raf = open.remove(s);
+                if (raf != null) {
+                    raf.close();
+                }
+                unforced.remove(s);
+                segmentFile(s).delete();
+            }
+            maxSegment = seg;
+            prepared = Math.min(prepared, seg);
+        }
+    }
+
+    /**
+     * @return a stream of the log from lsn on, which ends at the first
+     *         segment that isn't on disk
+     */
+    InputStream read(final long lsn) throws IOException {
+        return new InputStream() {
+            private long seg = lsn / segmentSize;
+            private long remaining = segmentSize - lsn % segmentSize;
+            private FileInputStream in = openAt(seg, lsn % segmentSize);
+
+            private boolean advance() throws IOException {
+                while (remaining == 0 && in != null) {
+                    in.close();
+                    seg++;
+                    remaining = segmentSize;
+                    in = openAt(seg, 0);
+                }
+                return in != null;
+            }
+
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!advance()) {
+                    return -1;
+                }
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n < 0) {
+                    // a segment shorter than it should be
+                    remaining = 0;
+                    in.close();
+                    in = null;
+                    return -1;
+                }
+                remaining -= n;
+                return n;
+            }
+
+            public void close() throws IOException {
+                if (in != null) {
+                    in.close();
+                    in = null;
+                }
+            }
+        };
+    }
+
+    private FileInputStream openAt(long seg, long pos) throws IOException {
+        File f = segmentFile(seg);
+        if (!f.exists()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(f);
+        in.getChannel().position(pos);
+        return in;
+    }
+
+    /**
+     * Hands the segments wholly before lsn to the background thread, to be
+     * archived, recycled or deleted. They must not be read or written
+     * anymore.
+     */
+    void release(long lsn) throws IOException {
+        final List<File> released = new ArrayList<>();
+        synchronized (this) {
+            long below = lsn / segmentSize;
+            Iterator<Map.Entry<Long, RandomAccessFile>> it = open.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, RandomAccessFile> e = it.next();
+                if (e.getKey() < below) {
+                    e.getValue().close();
+                    unforced.remove(e.getKey());
+                    it.remove();
+                }
+            }
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    String n = f.getName();
+                    if (n.startsWith(name + ".") && n.substring(name.length() + 1).matches("[0-9]+")
+                            && Long.parseLong(n.substring(name.length() + 1)) < below) {
+                        released.add(f);
+                    }
+                }
+            }
+        }
+        if (!released.isEmpty()) {
+            background.execute(() -> {
+                for (File f : released) {
+                    try {
+                        dispose(f);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    private void dispose(File f) throws IOException {
+        if (archiveDir != null) {
+            archiveDir.mkdirs();
+            Files.move(f.toPath(), new File(archiveDir, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        synchronized (this) {
+            String n = f.getName();
+            if (spares.size() < MAX_SPARES && f.length() == segmentSize) {
+                // named after the segment it was, see prepare()
+                File spare = new File(dir, name + ".spare" + n.substring(n.lastIndexOf('.') + 1)
+                        .replaceAll("[^0-9]", ""));
+                Files.move(f.toPath(), spare.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                spares.add(spare);
+                return;
+            }
+        }
+        f.delete();
+    }
+
+    /** @return the open segment seg, preparing it first if needed */
+    private FileChannel channel(long seg) throws IOException {
+        synchronized (this) {
+            RandomAccessFile raf = open.get(seg);
+            if (raf != null) {
+                return raf.getChannel();
+            }
+        }
+        prepare(seg);
+        synchronized (this) {
+            RandomAccessFile raf = open.get(seg);
+            if (raf == null) {
+                raf = new RandomAccessFile(segmentFile(seg), "rw");
+                open.put(seg, raf);
+            }
+            if (seg + 1 > prepared) {
+                prepared = seg + 1;
+                background.execute(() -> {
+                    try {
+                        prepare(seg + 1);
+                    } catch (IOException e) {
+                        // the writer prepares it itself when it gets there
+                        e.printStackTrace();
+                    }
+                });
+            }
+            return raf.getChannel();
+        }
+    }
+
+    /** Puts a full-size segment file seg on disk, if it isn't there yet. */
+    private void prepare(long seg) throws IOException {
+        File f = segmentFile(seg);
+        if (f.length() == segmentSize) {
+            return;
+        }
+        File tmp = null;
+        synchronized (this) {
+            for (Iterator<File> it = spares.iterator(); it.hasNext(); ) {
+                File spare = it.next();
+                if (Long.parseLong(spare.getName().substring(name.length() + ".spare".length())) != seg) {
+                    tmp = spare;
+                    it.remove();
+                    break;
+                }
+            }
+        }
+        if (tmp == null) {
+            tmp = new File(dir, name + ".prealloc" + seg + "." + Thread.currentThread().getId());
+            RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+            try {
+                FileChannel ch = raf.getChannel();
+                ByteBuffer zeros = ByteBuffer.allocate(ZEROS);
+                long pos = 0;
+                while (pos < segmentSize) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(ZEROS, segmentSize - pos));
+                    pos += ch.write(zeros, pos);
+                }
+                // the one metadata sync a segment costs
+                ch.force(true);
+            } finally {
+                raf.close();
+            }
+        }
+        synchronized (this) {
+            if (f.length() != segmentSize) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                maxSegment = Math.max(maxSegment, seg);
+                return;
+            }
+        }
+        // someone else got there first
+        dispose(tmp);
+    }
+
+    /** Waits for the background thread to finish what it has been given so far. */
+    void sync() throws IOException {
+        try {
+            background.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops the background thread, once it has done what it was given, and
+     * closes the open segments.
+     */
+    void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        synchronized (this) {
+            for (RandomAccessFile raf : open.values()) {
+                raf.close();
+            }
+            open.clear();
+            unforced.clear();
+        }
+    }
+}
@@ -23,6 +23,12 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithms a join can be done with. */
+    public enum Algorithm { NESTED_LOOPS, INDEX, MERGE }
+
+    /** The algorithm to do the join with, chosen by {@link JoinOptimizer#orderJoins}. */
+    public Algorithm algorithm = Algorithm.NESTED_LOOPS;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +69,13 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this LogicalJoinNode, to be done with algorithm a. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.algorithm = a;
+        return j2;
+    }
+    
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
@@ -22,6 +22,13 @@ import java.util.NoSuchElementException;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /**
+     * Filters on the key of a table stored in a BTreeFile, or equality
+     * filters on a field with a HashIndexFile, that let through at most this
+     * fraction of the table are answered with an IndexScan.
+     */
+    static final double INDEX_SELECTIVITY = 0.3;
+
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
@@ -33,8 +40,9 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -203,17 +211,23 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds a
+        field that orders the tuples equal on the fields added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
+    }
+
+    /** Add a LIMIT on the number of tuples the query returns, after ORDER BY.
+        @param n the number of tuples to return at most
+    */
+    public void addLimit(int n) {
+        limit = n;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -306,6 +320,8 @@ public class LogicalPlan {
 
         }
 
+        HashMap<String,IndexScan> indexScans = new HashMap<String,IndexScan>();
+        HashMap<String,Double> indexSelectivities = new HashMap<String,Double>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -338,12 +354,41 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            int field = subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName);
+            double sel= s.estimateSelectivity(field, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            // remember the most selective filter the index of the table can answer
+            DbFile file = Database.getCatalog().getDatabaseFile(this.getTableId(lf.tableAlias));
+            if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field
+                    && lf.p != Predicate.Op.LIKE && lf.p != Predicate.Op.NOT_EQUALS
+                    && sel <= INDEX_SELECTIVITY
+                    && (!indexSelectivities.containsKey(lf.tableAlias) || sel < indexSelectivities.get(lf.tableAlias))) {
+                indexScans.put(lf.tableAlias, new IndexScan(t, file.getId(), lf.tableAlias, lf.p, f));
+                indexSelectivities.put(lf.tableAlias, sel);
+            }
+            for (HashIndexFile index : Database.getCatalog().getIndexes(file.getId())) {
+                if (index.keyField() == field && lf.p == Predicate.Op.EQUALS
+                        && sel <= INDEX_SELECTIVITY
+                        && (!indexSelectivities.containsKey(lf.tableAlias) || sel < indexSelectivities.get(lf.tableAlias))) {
+                    indexScans.put(lf.tableAlias, new IndexScan(t, index, lf.tableAlias, f));
+                    indexSelectivities.put(lf.tableAlias, sel);
+                }
+            }
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // put the index scans under the filters, which still check every
+        // tuple and keep the cardinality estimates as they were
+        for (Map.Entry<String,IndexScan> e : indexScans.entrySet()) {
+            Operator node = (Operator) subplanMap.get(e.getKey());
+            while (!(node.getChildren()[0] instanceof SeqScan)) {
+                node = (Operator) node.getChildren()[0];
+            }
+            node.setChildren(new OpIterator[] { e.getValue() });
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -474,8 +519,17 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        int[] oFields = new int[oByFields.size()];
+        boolean[] oAscs = new boolean[oByFields.size()];
+        for (int i = 0; i < oFields.length; i++) {
+            oFields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+            oAscs[i] = oByAscs.elementAt(i);
+        }
+        if (limit >= 0) {
+            // an ORDER BY with a LIMIT only needs to keep the first tuples
+            node = new TopN(oFields, oAscs, limit, node);
+        } else if (oFields.length > 0) {
+            node = new OrderBy(oFields, oAscs, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement (O'Neil et al.). The victim is the page whose K-th most
+ * recent access lies furthest in the past. Pages that have been accessed fewer
+ * than K times have an infinite backward K-distance and are evicted first,
+ * least recently used first, so pages touched once by a large sequential scan
+ * don't push out the working set.
+ * <p>
+ * Pages are kept in a tree ordered by their K-th access time, so each access
+ * and each victim selection is O(log n) in the number of cached pages.
+ *
+ * @Threadsafe
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private static class History {
+        final PageId pid;
+        final long[] accesses;  // circular buffer of the last K access times
+        int count = 0;          // total number of accesses
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.accesses = new long[k];
+        }
+
+        /** @return the K-th most recent access time, or 0 if there were fewer than K */
+        long kthAccess() {
+            return count < accesses.length ? 0 : accesses[count % accesses.length];
+        }
+
+        long lastAccess() {
+            return accesses[(count - 1) % accesses.length];
+        }
+    }
+
+    private final int k;
+    private long clock = 0;
+    private final Map<PageId, History> histories = new HashMap<>();
+    private final TreeSet<History> order = new TreeSet<>((a, b) -> {
+        int c = Long.compare(a.kthAccess(), b.kthAccess());
+        if (c == 0) {
+            c = Long.compare(a.lastAccess(), b.lastAccess());
+        }
+        return c;
+    });
+
+    /**
+     * @param k the number of accesses to remember per page
+     */
+    public LruKPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+    }
+
+    @Override
+    public synchronized void pageLoaded(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            h = new History(pid, k);
+            histories.put(pid, h);
+        } else {
+            order.remove(h);
+        }
+        record(h);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        History h = histories.get(pid);
+        if (h != null) {
+            order.remove(h);
+            record(h);
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+        if (h != null) {
+            order.remove(h);
+        }
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        Iterator<History> it = order.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next().pid;
+            if (evictable.isEvictable(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    private void record(History h) {
+        // access times are unique, so no two histories compare equal
+        h.accesses[h.count % k] = ++clock;
+        h.count++;
+        order.add(h);
+    }
+}
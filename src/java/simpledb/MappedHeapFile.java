@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * MappedHeapFile is a HeapFile for read-mostly tables that serves page reads
+ * from memory-mapped segments of the backing file instead of reading each page
+ * into a fresh byte array. Pages are parsed straight out of a slice of the
+ * mapped region.
+ * <p>
+ * The file is mapped lazily in segments of SEGMENT_BYTES bytes. Writes still go
+ * through {@link HeapFile#writePage}; a read-only mapping of the same file sees
+ * them. When the table grows past the mapped part of a segment (e.g. when
+ * insertTuple appends a page), that segment is remapped on the next read.
+ *
+ * @see simpledb.HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Default size of a mapped segment, rounded down to a whole number of pages. */
+    public static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private final int pagesPerSegment;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];  // protected by this
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        pagesPerSegment = Math.max(1, SEGMENT_BYTES / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        int pageNo = pid.getPageNumber();
+        if (pageNo < 0 || pageNo >= numPages()) {
+            throw new IllegalArgumentException("Page " + pid + " does not exist in " + getFile());
+        }
+        try {
+            int start = (pageNo % pagesPerSegment) * pageSize;
+            ByteBuffer page = mappedSegment(pageNo / pagesPerSegment, start + pageSize).duplicate();
+            if (page.limit() - start < pageSize) {
+                // a partial page at the end of the file; the missing bytes are zeroes
+                byte[] data = new byte[pageSize];
+                page.position(start);
+                page.get(data, 0, page.remaining());
+                return noteFreeSpace(new HeapPage((HeapPageId) pid, data));
+            }
+            page.position(start);
+            page.limit(start + pageSize);
+            return noteFreeSpace(new HeapPage((HeapPageId) pid, page));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the mapping of the specified segment, (re)mapping it if it
+     * doesn't cover its first minBytes bytes yet.
+     */
+    private synchronized MappedByteBuffer mappedSegment(int segNo, int minBytes) throws IOException {
+        if (segNo >= segments.length) {
+            segments = Arrays.copyOf(segments, segNo + 1);
+        }
+        long segBytes = (long) pagesPerSegment * BufferPool.getPageSize();
+        MappedByteBuffer seg = segments[segNo];
+        if (seg == null || seg.capacity() < minBytes) {
+            long segStart = segNo * segBytes;
+            FileChannel channel = Database.getFileChannelPool().acquire(getFile());
+            try {
+                long len = Math.min(segBytes, channel.size() - segStart);
+                seg = channel.map(FileChannel.MapMode.READ_ONLY, segStart, len);
+            } finally {
+                Database.getFileChannelPool().release(getFile());
+            }
+            segments[segNo] = seg;
+        }
+        return seg;
+    }
+}
@@ -29,6 +29,9 @@ public class OperatorCardinality {
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            return updateSortMergeJoinCardinality((SortMergeJoin) o,
+                    tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -47,6 +50,9 @@ public class OperatorCardinality {
                             .estimateTableCardinality(1.0);
                 }
             }
+            if (o instanceof TopN) {
+                childC = Math.min(childC, ((TopN) o).getLimit());
+            }
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -91,62 +97,42 @@ public class OperatorCardinality {
     private static boolean updateJoinCardinality(Join j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
-
-        OpIterator[] children = j.getChildren();
-        OpIterator child1 = children[0];
-        OpIterator child2 = children[1];
-        int child1Card = 1;
-        int child2Card = 1;
-
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
-        String tableAlias1 = tmp1[0];
-        String pureFieldName1 = tmp1[1];
-
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
-        String tableAlias2 = tmp2[0];
-        String pureFieldName2 = tmp2[1];
-
-        boolean child1HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias1))
-                .equals(pureFieldName1);
-        boolean child2HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias2))
-                .equals(pureFieldName2);
-
-        if (child1 instanceof Operator) {
-            Operator child1O = (Operator) child1;
-            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
-                    tableStats);
-            child1HasJoinPK = pk || child1HasJoinPK;
-            child1Card = child1O.getEstimatedCardinality();
-            child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
-        }
-
-        if (child2 instanceof Operator) {
-            Operator child2O = (Operator) child2;
-            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
-                    tableStats);
-            child2HasJoinPK = pk || child2HasJoinPK;
-            child2Card = child2O.getEstimatedCardinality();
-            child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
-        }
-
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
-                pureFieldName1, pureFieldName2, child1Card, child2Card,
-                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
-        return child1HasJoinPK || child2HasJoinPK;
+        return updateJoinCardinality(j, j.getJoinField1Name(),
+                j.getJoinField2Name(), j.getJoinPredicate().getOperator(), 1,
+                tableAliasToId, tableStats);
     }
 
     private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
+        return updateJoinCardinality(j, j.getJoinField1Name(),
+                j.getJoinField2Name(), j.getJoinPredicate().getOperator(), 1,
+                tableAliasToId, tableStats);
+    }
+
+    private static boolean updateSortMergeJoinCardinality(SortMergeJoin j,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        double width = j.isBand() ? (double) j.getHigh() - j.getLow() + 1 : 1;
+        return updateJoinCardinality(j, j.getJoinField1Name(),
+                j.getJoinField2Name(), j.getJoinPredicate().getOperator(),
+                width, tableAliasToId, tableStats);
+    }
+
+    /**
+     * Updates the cardinality of the join j of its two children, after
+     * updating theirs.
+     *
+     * @param width
+     *            the number of values of the second field that each value
+     *            of the first one joins with, 1 but for band joins
+     * @return whether either join field is a primary key, which a band join
+     *         never treats as one
+     */
+    private static boolean updateJoinCardinality(Operator j,
+            String joinField1Name, String joinField2Name, Predicate.Op op,
+            double width, Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
 
         OpIterator[] children = j.getChildren();
         OpIterator child1 = children[0];
@@ -154,21 +140,19 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
         boolean child1HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias1))
                 .equals(pureFieldName1);
-        ;
         boolean child2HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias2))
                 .equals(pureFieldName2);
-        ;
 
         if (child1 instanceof Operator) {
             Operator child1O = (Operator) child1;
@@ -178,8 +162,8 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = tableStats.get(((SeqScan) child1).getTableName())
+                    .estimateTableCardinality(1.0);
         }
 
         if (child2 instanceof Operator) {
@@ -190,14 +174,21 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = tableStats.get(((SeqScan) child2).getTableName())
+                    .estimateTableCardinality(1.0);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
-                pureFieldName1, pureFieldName2, child1Card, child2Card,
-                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
+        int card = JoinOptimizer.estimateTableJoinCardinality(op, tableAlias1,
+                tableAlias2, pureFieldName1, pureFieldName2, child1Card,
+                child2Card, child1HasJoinPK, child2HasJoinPK, tableStats,
+                tableAliasToId);
+        if (width != 1) {
+            // a band of width w matches about as many tuples as w equalities
+            j.setEstimatedCardinality((int) Math.min((double) child1Card
+                    * child2Card, card * width));
+            return false;
+        }
+        j.setEstimatedCardinality(card);
         return child1HasJoinPK || child2HasJoinPK;
     }
 
@@ -1,24 +1,35 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It is an external merge sort: the child is read into memory up to the
+ * memory budget at a time, and each load is sorted and written out as a run
+ * to a {@link SpillFile}. The runs are merged through a heap, as many as fit
+ * in the budget at a time, until one merge can produce the output. If the
+ * child fits in memory it is sorted there without writing any runs.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int memoryPages;
     private Iterator<Tuple> it;
-    private boolean asc;
+
+    transient private ArrayList<SpillFile> runs;  // null while the child fits in memory
+    transient private Merge merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -27,61 +38,198 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields, each one
+     * ordering the tuples that are equal on the fields before it.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant first.
+     * @param ascs
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, OpIterator child) {
+        this(orderbyFields, ascs, child, SpillFile.DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param memoryPages
+     *            the number of pages of tuples to keep in memory, at least 3
+     *            are used
+     * @see #OrderBy(int[], boolean[], OpIterator)
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, OpIterator child, int memoryPages) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length) {
+            throw new IllegalArgumentException("Need an order for each of one or more fields");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.memoryPages = Math.max(3, memoryPages);
     }
-    
+
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
-    
+
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /** @return the fields the sort is applied to, most significant first */
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
     }
-    
+
+    /** @return for each of getOrderByFields(), whether it is sorted ascending */
+    public boolean[] getAscs()
+    {
+        return this.ascs.clone();
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the number of tuples that fit in the memory budget */
+    private int budget() {
+        return SpillFile.fitInPages(memoryPages, td.getSize());
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        TupleComparator cmp = new TupleComparator(orderByFields, ascs);
+        int budget = budget();
+        childTups.clear();
+        try {
+            // load as many tuples as fit in a collection, and sort it
+            while (child.hasNext()) {
+                childTups.add(child.next());
+                if (childTups.size() >= budget) {
+                    writeRun(cmp);
+                }
+            }
+            if (runs == null) {
+                Collections.sort(childTups, cmp);
+                it = childTups.iterator();
+            } else {
+                if (!childTups.isEmpty()) {
+                    writeRun(cmp);
+                }
+                // a page of input buffer per run, and one for the output
+                int fanIn = memoryPages - 1;
+                while (runs.size() > fanIn) {
+                    mergePass(cmp, fanIn);
+                }
+                merge = new Merge(cmp, runs);
+                merge.open();
+            }
+        } catch (IOException e) {
+            throw new DbException(e.toString());
+        }
         super.open();
     }
 
+    /** Sorts childTups and moves them to a new run. */
+    private void writeRun(TupleComparator cmp) throws IOException {
+        Collections.sort(childTups, cmp);
+        if (runs == null) {
+            runs = new ArrayList<SpillFile>();
+        }
+        // in runs before it is written, so close() deletes it if that fails
+        SpillFile run = new SpillFile(td);
+        runs.add(run);
+        for (Tuple t : childTups) {
+            run.add(t);
+        }
+        childTups.clear();
+    }
+
+    /** Merges each fanIn runs into one. */
+    private void mergePass(TupleComparator cmp, int fanIn)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        boolean done = false;
+        try {
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                SpillFile run = new SpillFile(td);
+                merged.add(run);
+                Merge m = new Merge(cmp, group);
+                m.open();
+                Tuple t;
+                while ((t = m.next()) != null) {
+                    run.add(t);
+                }
+                m.close();
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // so close() deletes the new runs too
+                runs.addAll(merged);
+            }
+        }
+        runs = merged;
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        childTups.clear();
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+            runs = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merge != null) {
+            merge.close();
+            merge.open();
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null) {
+            return merge.next();
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -98,26 +246,66 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * A k-way merge of sorted runs, through a heap of the next tuple of each
+     * run. Ties go to the earlier run, so the sort is stable.
+     */
+    private static class Merge {
+        private final TupleComparator cmp;
+        private final OpIterator[] scans;
+        private PriorityQueue<Head> heap;
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+        private static class Head {
+            final Tuple t;
+            final int run;
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
+            Head(Tuple t, int run) {
+                this.t = t;
+                this.run = run;
+            }
+        }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        Merge(TupleComparator cmp, List<SpillFile> runs) {
+            this.cmp = cmp;
+            scans = new OpIterator[runs.size()];
+            for (int i = 0; i < scans.length; i++) {
+                scans[i] = runs.get(i).iterator();
+            }
+        }
+
+        void open() throws DbException, TransactionAbortedException {
+            heap = new PriorityQueue<Head>(Math.max(1, scans.length), new Comparator<Head>() {
+                public int compare(Head a, Head b) {
+                    int c = cmp.compare(a.t, b.t);
+                    return c != 0 ? c : Integer.compare(a.run, b.run);
+                }
+            });
+            for (int i = 0; i < scans.length; i++) {
+                scans[i].open();
+                if (scans[i].hasNext()) {
+                    heap.add(new Head(scans[i].next(), i));
+                }
+            }
+        }
+
+        /** @return the next tuple, or null if the runs are done */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Head h = heap.poll();
+            if (h == null) {
+                return null;
+            }
+            if (scans[h.run].hasNext()) {
+                heap.add(new Head(scans[h.run].next(), h.run));
+            }
+            return h.t;
+        }
+
+        void close() {
+            for (OpIterator scan : scans) {
+                scan.close();
+            }
+            heap = null;
+        }
     }
-    
+
 }
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PageDelta is the change one transaction made to a HeapPage, as logged in
+ * a delta update record: the range of header bytes whose slot bits changed
+ * and the range of tuple slots that changed, each with its before and after
+ * bytes. Redo copies the after bytes into a page, undo the before bytes, so
+ * a delta can be applied to any version of the page in which the other
+ * slots are valid.
+ * <p>
+ * A delta that touches one slot is a few dozen bytes instead of the two
+ * full page images of an UPDATE record.
+ *
+ * @see LogFile
+ */
+class PageDelta {
+
+    final HeapPageId pid;
+    private final int headerOffset;
+    private final byte[] headerBefore;
+    private final byte[] headerAfter;
+    private final int slotOffset;
+    private final byte[] slotsBefore;
+    private final byte[] slotsAfter;
+
+    private PageDelta(HeapPageId pid, int headerOffset, byte[] headerBefore, byte[] headerAfter,
+            int slotOffset, byte[] slotsBefore, byte[] slotsAfter) {
+        this.pid = pid;
+        this.headerOffset = headerOffset;
+        this.headerBefore = headerBefore;
+        this.headerAfter = headerAfter;
+        this.slotOffset = slotOffset;
+        this.slotsBefore = slotsBefore;
+        this.slotsAfter = slotsAfter;
+    }
+
+    /**
+     * @return the delta that turns before into after, two versions of the
+     *         same page
+     */
+    static PageDelta diff(HeapPage before, HeapPage after) {
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+        int header = after.headerSize;
+        int tupleSize = after.td.getSize();
+        int slotsEnd = header + after.numSlots * tupleSize;
+
+        int[] h = changed(b, a, 0, header);
+        int[] s = changed(b, a, header, slotsEnd);
+        if (s[0] < s[1]) {
+            // widen to whole slots, so redo and undo work slot by slot
+            s[0] = header + (s[0] - header) / tupleSize * tupleSize;
+            s[1] = header + (s[1] - header + tupleSize - 1) / tupleSize * tupleSize;
+        }
+        return new PageDelta(after.getId(),
+                h[0], Arrays.copyOfRange(b, h[0], h[1]), Arrays.copyOfRange(a, h[0], h[1]),
+                s[0], Arrays.copyOfRange(b, s[0], s[1]), Arrays.copyOfRange(a, s[0], s[1]));
+    }
+
+    /** @return {first, end} of the bytes in [from, to) that differ; empty if none do */
+    private static int[] changed(byte[] b, byte[] a, int from, int to) {
+        int first = from;
+        while (first < to && b[first] == a[first]) {
+            first++;
+        }
+        int end = to;
+        while (end > first && b[end - 1] == a[end - 1]) {
+            end--;
+        }
+        return new int[] { first, end };
+    }
+
+    /** Applies this change to the bytes of the page. */
+    void redo(byte[] page) {
+        System.arraycopy(headerAfter, 0, page, headerOffset, headerAfter.length);
+        System.arraycopy(slotsAfter, 0, page, slotOffset, slotsAfter.length);
+    }
+
+    /** Reverts this change in the bytes of the page. */
+    void undo(byte[] page) {
+        System.arraycopy(headerBefore, 0, page, headerOffset, headerBefore.length);
+        System.arraycopy(slotsBefore, 0, page, slotOffset, slotsBefore.length);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(pid.getTableId());
+        out.writeInt(pid.getPageNumber());
+        writeRange(out, headerOffset, headerBefore, headerAfter);
+        writeRange(out, slotOffset, slotsBefore, slotsAfter);
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+        int headerOffset = in.readInt();
+        int headerLen = in.readInt();
+        byte[] headerBefore = readBytes(in, headerLen);
+        byte[] headerAfter = readBytes(in, headerLen);
+        int slotOffset = in.readInt();
+        int slotsLen = in.readInt();
+        byte[] slotsBefore = readBytes(in, slotsLen);
+        byte[] slotsAfter = readBytes(in, slotsLen);
+        return new PageDelta(pid, headerOffset, headerBefore, headerAfter, slotOffset, slotsBefore, slotsAfter);
+    }
+
+    private static void writeRange(DataOutput out, int offset, byte[] before, byte[] after) throws IOException {
+        out.writeInt(offset);
+        out.writeInt(before.length);
+        out.write(before);
+        out.write(after);
+    }
+
+    private static byte[] readBytes(DataInput in, int len) throws IOException {
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return b;
+    }
+}
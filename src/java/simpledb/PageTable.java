@@ -0,0 +1,226 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageTable maps the PageIds cached by the BufferPool to their frames. The
+ * table is split into a fixed number of partitions, each guarded by its own
+ * lock, so that lookups of different pages rarely contend.
+ * <p>
+ * A frame is created as soon as some thread misses on a page, before the page
+ * has been read. The first thread to {@link Frame#claimLoad claim} the frame
+ * reads the page; every other thread that misses on the same page finds the
+ * frame and waits for that read instead of issuing its own.
+ *
+ * @Threadsafe
+ */
+class PageTable {
+
+    /**
+     * A buffer pool frame: the slot for one cached page. Frames carry a pin
+     * count; a pinned frame is being loaded, read or written and must not be
+     * evicted.
+     */
+    static class Frame {
+        final PageId pid;
+        private final AtomicInteger pins = new AtomicInteger();
+        private final AtomicBoolean loadClaimed = new AtomicBoolean();
+        private volatile Page page;
+        private boolean failed;  // protected by this
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+
+        /** @return true for exactly one caller, which must then load the page */
+        boolean claimLoad() {
+            return !loadClaimed.get() && loadClaimed.compareAndSet(false, true);
+        }
+
+        /** @return the cached page, or null if it hasn't been loaded yet */
+        Page page() {
+            return page;
+        }
+
+        synchronized void setPage(Page p) {
+            page = p;
+            notifyAll();
+        }
+
+        synchronized void loadFailed() {
+            failed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the page has been loaded by whoever claimed the frame.
+         *
+         * @throws DbException if loading the page failed
+         */
+        Page awaitPage() throws DbException {
+            Page p = page;
+            if (p != null) {
+                return p;
+            }
+            synchronized (this) {
+                boolean interrupted = false;
+                while (page == null && !failed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                if (page == null) {
+                    throw new DbException("Failed to load page " + pid);
+                }
+                return page;
+            }
+        }
+
+        void unpin() {
+            pins.decrementAndGet();
+        }
+
+        boolean isPinned() {
+            return pins.get() > 0;
+        }
+    }
+
+    private static class Partition {
+        final HashMap<PageId, Frame> frames = new HashMap<>();
+    }
+
+    private final Partition[] partitions;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param numPartitions the number of partitions, rounded up to a power of two
+     */
+    PageTable(int numPartitions) {
+        int n = Integer.highestOneBit(Math.max(1, numPartitions - 1)) << 1;
+        partitions = new Partition[n];
+        for (int i = 0; i < n; i++) {
+            partitions[i] = new Partition();
+        }
+    }
+
+    private Partition partitionOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return partitions[h & (partitions.length - 1)];
+    }
+
+    /** @return the frame of pid, or null if there is none. The frame is not pinned. */
+    Frame get(PageId pid) {
+        Partition p = partitionOf(pid);
+        synchronized (p) {
+            return p.frames.get(pid);
+        }
+    }
+
+    /**
+     * Returns the frame of pid, creating an empty one if there is none, and
+     * pins it. The caller must unpin the frame when it is done with it.
+     */
+    Frame pin(PageId pid) {
+        Partition p = partitionOf(pid);
+        synchronized (p) {
+            Frame f = p.frames.get(pid);
+            if (f == null) {
+                f = new Frame(pid);
+                p.frames.put(pid, f);
+                size.incrementAndGet();
+            }
+            f.pins.incrementAndGet();
+            return f;
+        }
+    }
+
+    /**
+     * Pins and returns the frame of pid, or returns null if there is none.
+     */
+    Frame pinIfPresent(PageId pid) {
+        Partition p = partitionOf(pid);
+        synchronized (p) {
+            Frame f = p.frames.get(pid);
+            if (f != null) {
+                f.pins.incrementAndGet();
+            }
+            return f;
+        }
+    }
+
+    /**
+     * Removes frame f from the table if it is still the frame of its page and
+     * is not pinned.
+     *
+     * @return true if the frame was removed
+     */
+    boolean removeIfUnpinned(Frame f) {
+        Partition p = partitionOf(f.pid);
+        synchronized (p) {
+            // pins are only ever taken under the partition lock, so no one
+            // can pin f between this check and the removal
+            if (f.isPinned() || p.frames.get(f.pid) != f) {
+                return false;
+            }
+            p.frames.remove(f.pid);
+            size.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Removes frame f from the table if it is still the frame of its page,
+     * regardless of pins.
+     */
+    void remove(Frame f) {
+        Partition p = partitionOf(f.pid);
+        synchronized (p) {
+            if (p.frames.get(f.pid) == f) {
+                p.frames.remove(f.pid);
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the frame of pid regardless of pins.
+     *
+     * @return the removed frame, or null if there was none
+     */
+    Frame remove(PageId pid) {
+        Partition p = partitionOf(pid);
+        synchronized (p) {
+            Frame f = p.frames.remove(pid);
+            if (f != null) {
+                size.decrementAndGet();
+            }
+            return f;
+        }
+    }
+
+    /** @return the number of frames, including ones still being loaded */
+    int size() {
+        return size.get();
+    }
+
+    /** @return a snapshot of all frames */
+    List<Frame> frames() {
+        List<Frame> all = new ArrayList<>(size());
+        for (Partition p : partitions) {
+            synchronized (p) {
+                all.addAll(p.frames.values());
+            }
+        }
+        return all;
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * PagedFile is the file of full pages behind a HeapFile, BTreeFile or
+ * HashIndexFile: page n is at offset n times the page size, and pages past
+ * the end of the file read as zeros. It also hands out the numbers of new
+ * pages.
+ * <p>
+ * The index files use its static helpers to collect the pages an update
+ * creates or changes, which are only cached when the update returns them.
+ *
+ * @Threadsafe
+ */
+class PagedFile {
+
+    private final File file;
+    private int allocatedPages;  // pages handed out by allocatePages(), protected by this
+
+    /**
+     * @param f the file that stores the pages
+     * @param reservedPages the number of pages at the start of the file
+     *                      that are never allocated, such as a root page
+     */
+    PagedFile(File f, int reservedPages) {
+        file = f;
+        allocatedPages = reservedPages;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /** @return the bytes of page pageNo, all zeros if it is past the end of the file */
+    byte[] read(int pageNo) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Database.getFileChannelPool().read(file, ByteBuffer.wrap(data), pageOffset(pageNo));
+        return data;
+    }
+
+    void write(Page page) throws IOException {
+        Database.getFileChannelPool().write(file, ByteBuffer.wrap(page.getPageData()),
+                pageOffset(page.getId().getPageNumber()));
+    }
+
+    /** @return the byte offset of the specified page in the backing file. */
+    long pageOffset(int pageNo) {
+        return (long) pageNo * BufferPool.getPageSize();
+    }
+
+    /** @return the number of pages in the file */
+    int numPages() {
+        return (int) ((file.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * Reserves the numbers of n new pages at the end of the file. The pages
+     * are not part of the file until they are written, but their numbers
+     * won't be handed out again.
+     *
+     * @return the number of the first of the pages
+     */
+    synchronized int allocatePages(int n) {
+        int pageNo = Math.max(numPages(), allocatedPages);
+        allocatedPages = pageNo + n;
+        return pageNo;
+    }
+
+    /** @return the number of a new page, see {@link #allocatePages} */
+    int allocatePage() {
+        return allocatePages(1);
+    }
+
+    /**
+     * @return the page in dirtied if tid has created or changed it, else the
+     *         page from the BufferPool; pages asked for READ_WRITE are marked
+     *         dirty by tid and added to dirtied before they are changed, so
+     *         the change is rolled back if tid aborts
+     */
+    static Page page(TransactionId tid, PageId pid, Permissions perm, Map<PageId, Page> dirtied)
+            throws DbException, TransactionAbortedException {
+        Page page = dirtied.get(pid);
+        if (page == null) {
+            page = Database.getBufferPool().getPage(tid, pid, perm);
+            if (perm == Permissions.READ_WRITE) {
+                page.markDirty(true, tid);
+                dirtied.put(pid, page);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Locks page, which tid has just created, for tid and adds it to
+     * dirtied; it is only there until it is handed to the BufferPool.
+     */
+    static void created(TransactionId tid, Page page, Map<PageId, Page> dirtied)
+            throws TransactionAbortedException {
+        Database.getBufferPool().getLockManager().acquire(tid, page.getId(), true);
+        page.markDirty(true, tid);
+        dirtied.put(page.getId(), page);
+    }
+}
@@ -0,0 +1,327 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelHeapFileEncoder converts a delimited text file into a heap file,
+ * like {@link HeapFileEncoder}, but encodes pages on several threads.
+ * <p>
+ * The calling thread scans the input for line ends and cuts it into batches
+ * of exactly {@link #PAGES_PER_BATCH} pages' worth of lines, so every batch
+ * knows where its pages go. Worker threads read their batch, parse it
+ * straight from the bytes and encode its pages into direct buffers, which
+ * are recycled. The calling thread writes the encoded batches in order
+ * through a single FileChannel, so the output is written sequentially.
+ * <p>
+ * For newline-terminated ASCII input the output is byte for byte what
+ * HeapFileEncoder produces. The input is read as bytes, so strings are
+ * copied as they are instead of being decoded first. Unlike
+ * HeapFileEncoder, a final line without a newline is encoded too, and a
+ * malformed line is reported with an IOException instead of being written
+ * out half-encoded.
+ */
+public class ParallelHeapFileEncoder {
+
+    /** Number of pages each worker encodes at a time. */
+    public static final int PAGES_PER_BATCH = 256;
+
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+
+    private final int npagebytes;
+    private final Type[] typeAr;
+    private final char fieldSeparator;
+    private final int threads;
+
+    private final int nrecbytes;
+    private final int nrecords;
+    private final int nheaderbytes;
+    private final byte[] zeroPage;
+
+    private long rows;
+    private long elapsedNanos;
+
+    /**
+     * @param npagebytes The number of bytes per page in the output file
+     * @param typeAr the types of the fields of each input line
+     * @param fieldSeparator the character separating fields on a line
+     * @param threads the number of encoding threads
+     */
+    public ParallelHeapFileEncoder(int npagebytes, Type[] typeAr, char fieldSeparator, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.npagebytes = npagebytes;
+        this.typeAr = typeAr.clone();
+        this.fieldSeparator = fieldSeparator;
+        this.threads = threads;
+
+        int recbytes = 0;
+        for (Type t : typeAr) {
+            recbytes += t.getLen();
+        }
+        nrecbytes = recbytes;
+        nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        nheaderbytes = (nrecords + 7) / 8;
+        zeroPage = new byte[npagebytes];
+    }
+
+    /** A range of input lines that fills up to PAGES_PER_BATCH pages. */
+    private static class Batch {
+        final long start;
+        final long end;
+        final long lines;
+
+        Batch(long start, long end, long lines) {
+            this.start = start;
+            this.end = end;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Converts inFile into the heap file outFile.
+     *
+     * @return the number of rows written
+     * @throws IOException if a file can't be read or written, or a line is malformed
+     */
+    public long convert(File inFile, File outFile) throws IOException {
+        long startNanos = System.nanoTime();
+        final int window = 2 * threads;
+        final BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(window);
+        for (int i = 0; i < window; i++) {
+            buffers.add(ByteBuffer.allocateDirect(PAGES_PER_BATCH * npagebytes));
+        }
+        Deque<Future<ByteBuffer>> inFlight = new ArrayDeque<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long total = 0;
+        try (RandomAccessFile inRaf = new RandomAccessFile(inFile, "r");
+             FileOutputStream os = new FileOutputStream(outFile)) {
+            final FileChannel in = inRaf.getChannel();
+            FileChannel out = os.getChannel();
+            long batchLines = (long) nrecords * PAGES_PER_BATCH;
+
+            ByteBuffer readBuf = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            byte[] bytes = readBuf.array();
+            long pos = 0;          // file offset of bytes[0]
+            long batchStart = 0;
+            long lines = 0;        // non-empty lines in the current batch
+            boolean lineHasData = false;
+            int n;
+            while ((n = in.read(readBuf, pos)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    byte b = bytes[i];
+                    if (b == '\n') {
+                        if (lineHasData) {
+                            lineHasData = false;
+                            if (++lines == batchLines) {
+                                long end = pos + i + 1;
+                                submit(pool, in, new Batch(batchStart, end, lines), buffers, inFlight, out, window);
+                                total += lines;
+                                batchStart = end;
+                                lines = 0;
+                            }
+                        }
+                    } else if (b != '\r') {
+                        lineHasData = true;
+                    }
+                }
+                pos += n;
+                readBuf.clear();
+            }
+            if (lineHasData) {
+                lines++;
+            }
+            if (lines > 0) {
+                submit(pool, in, new Batch(batchStart, pos, lines), buffers, inFlight, out, window);
+                total += lines;
+            }
+            while (!inFlight.isEmpty()) {
+                writeNext(inFlight, buffers, out);
+            }
+            if (total == 0) {
+                // like HeapFileEncoder, an empty table still gets one page
+                out.write(ByteBuffer.wrap(zeroPage));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        rows = total;
+        elapsedNanos = System.nanoTime() - startNanos;
+        return total;
+    }
+
+    /** @return the number of rows written by the last conversion */
+    public long getRows() {
+        return rows;
+    }
+
+    /** @return the number of rows per second of the last conversion */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows / (elapsedNanos / 1e9);
+    }
+
+    private void submit(ExecutorService pool, final FileChannel in, final Batch batch,
+            final BlockingQueue<ByteBuffer> buffers, Deque<Future<ByteBuffer>> inFlight,
+            FileChannel out, int window) throws IOException {
+        if (inFlight.size() == window) {
+            writeNext(inFlight, buffers, out);
+        }
+        // a buffer is free: there are as many buffers as batches in flight
+        final ByteBuffer buf = buffers.poll();
+        inFlight.add(pool.submit(() -> encode(in, batch, buf)));
+    }
+
+    /** Waits for the oldest batch in flight, writes it and recycles its buffer. */
+    private void writeNext(Deque<Future<ByteBuffer>> inFlight, BlockingQueue<ByteBuffer> buffers,
+            FileChannel out) throws IOException {
+        ByteBuffer buf;
+        try {
+            buf = inFlight.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+        buffers.add(buf);
+    }
+
+    private static final ThreadLocal<byte[]> INPUT = new ThreadLocal<>();
+
+    /** Encodes the lines of batch into buf, and returns buf ready to be written. */
+    private ByteBuffer encode(FileChannel in, Batch batch, ByteBuffer buf) throws IOException {
+        int len = (int) (batch.end - batch.start);
+        byte[] input = INPUT.get();
+        if (input == null || input.length < len) {
+            input = new byte[len];
+            INPUT.set(input);
+        }
+        ByteBuffer dst = ByteBuffer.wrap(input, 0, len);
+        while (dst.hasRemaining()) {
+            if (in.read(dst, batch.start + dst.position()) < 0) {
+                throw new EOFException("Input file shrank while it was being converted");
+            }
+        }
+
+        int pages = (int) ((batch.lines + nrecords - 1) / nrecords);
+        buf.clear();
+        for (int i = 0; i < pages; i++) {
+            buf.put(zeroPage);
+        }
+        buf.flip();
+
+        int page = 0;
+        int slot = 0;
+        int p = 0;
+        while (p < len) {
+            int lineEnd = p;
+            boolean hasData = false;
+            while (lineEnd < len && input[lineEnd] != '\n') {
+                if (input[lineEnd] != '\r') {
+                    hasData = true;
+                }
+                lineEnd++;
+            }
+            if (hasData) {
+                int pageStart = page * npagebytes;
+                encodeLine(input, p, lineEnd, buf, pageStart + nheaderbytes + slot * nrecbytes);
+                int h = pageStart + slot / 8;
+                buf.put(h, (byte) (buf.get(h) | (1 << (slot % 8))));
+                if (++slot == nrecords) {
+                    slot = 0;
+                    page++;
+                }
+            }
+            p = lineEnd + 1;
+        }
+        return buf;
+    }
+
+    /** Encodes the fields of the line input[from, to) into buf at offset. */
+    private void encodeLine(byte[] input, int from, int to, ByteBuffer buf, int offset) throws IOException {
+        int fieldNo = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to && input[i] != fieldSeparator) {
+                continue;
+            }
+            if (fieldNo == typeAr.length) {
+                throw malformed(input, from, to);
+            }
+            // trim, like String.trim(); carriage returns count as blanks
+            int s = start;
+            int e = i;
+            while (s < e && (input[s] & 0xff) <= ' ') {
+                s++;
+            }
+            while (e > s && (input[e - 1] & 0xff) <= ' ') {
+                e--;
+            }
+            if (typeAr[fieldNo] == Type.INT_TYPE) {
+                buf.putInt(offset, parseInt(input, s, e, from, to));
+            } else {
+                int n = Math.min(e - s, Type.STRING_LEN);
+                buf.putInt(offset, n);
+                for (int k = 0; k < n; k++) {
+                    buf.put(offset + 4 + k, input[s + k]);
+                }
+            }
+            offset += typeAr[fieldNo].getLen();
+            fieldNo++;
+            start = i + 1;
+        }
+        if (fieldNo != typeAr.length) {
+            throw malformed(input, from, to);
+        }
+    }
+
+    private int parseInt(byte[] input, int s, int e, int lineFrom, int lineTo) throws IOException {
+        boolean negative = false;
+        int i = s;
+        if (i < e && (input[i] == '-' || input[i] == '+')) {
+            negative = input[i] == '-';
+            i++;
+        }
+        if (i == e) {
+            throw malformed(input, lineFrom, lineTo);
+        }
+        long v = 0;
+        for (; i < e; i++) {
+            int d = input[i] - '0';
+            if (d < 0 || d > 9) {
+                throw malformed(input, lineFrom, lineTo);
+            }
+            v = v * 10 + d;
+            if (v > (long) Integer.MAX_VALUE + 1) {
+                throw malformed(input, lineFrom, lineTo);
+            }
+        }
+        v = negative ? -v : v;
+        if (v > Integer.MAX_VALUE) {
+            throw malformed(input, lineFrom, lineTo);
+        }
+        return (int) v;
+    }
+
+    private IOException malformed(byte[] input, int from, int to) {
+        return new IOException("BAD LINE : " + new String(input, from, to - from).trim()
+                + " (expected " + typeAr.length + " fields separated by '" + fieldSeparator + "')");
+    }
+}
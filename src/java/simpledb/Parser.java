@@ -4,6 +4,7 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.*;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -253,18 +254,15 @@ public class Parser {
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -276,9 +274,23 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * @param limit
+     *            the LIMIT of the query, see {@link #stripLimit}, or -1 if
+     *            it has none
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0) {
+            lp.addLimit(limit);
+        }
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -463,14 +475,46 @@ public class Parser {
         }
     }
 
+    /**
+     * Zql doesn't know LIMIT, so a <tt>LIMIT n</tt> at the end of a statement
+     * is cut out of it before it is parsed.
+     *
+     * @param statement
+     *            the text of a statement, which loses its LIMIT clause
+     * @return the n of the LIMIT clause, or -1 if there is none
+     * @throws ParsingException if n is too large for an int
+     */
+    static int stripLimit(StringBuilder statement) throws simpledb.ParsingException {
+        Matcher m = LIMIT.matcher(statement);
+        if (!m.find()) {
+            return -1;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1) + " is out of range");
+        }
+        statement.delete(m.start(), m.end());
+        return limit;
+    }
+
+    private static final Pattern LIMIT = Pattern.compile(
+            "\\s+limit\\s+(\\d+)(?=\\s*(;|$))", Pattern.CASE_INSENSITIVE);
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        StringBuilder sb = new StringBuilder(s);
+        int limit = stripLimit(sb);
+        ByteArrayInputStream bis = new ByteArrayInputStream(sb.toString().getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0) {
+                    lp.addLimit(limit);
+                }
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,10 +547,20 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            StringBuilder statement = new StringBuilder(bytes.toString("UTF-8"));
+            int limit = stripLimit(statement);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(statement.toString().getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT is only supported on queries");
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
             else {
@@ -525,7 +579,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -580,7 +634,7 @@ public class Parser {
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
-            "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
+            "group by", "limit", "max(", "min(", "avg(", "count", "rollback", "commit",
             "insert", "delete", "values", "into" };
 
     public static void main(String argv[]) throws IOException {
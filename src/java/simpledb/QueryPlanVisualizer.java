@@ -9,11 +9,14 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
+    static final String TOPN = "top";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -26,7 +29,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -109,16 +112,17 @@ public class QueryPlanVisualizer {
 
             if (plan instanceof Join) {
                 Join j = (Join) plan;
+                String join = j instanceof IndexNestedLoopJoin ? INDEX_JOIN : JOIN;
                 TupleDesc td = j.getTupleDesc();
                 JoinPredicate jp = j.getJoinPredicate();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", join,
                         field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (join.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = join.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -128,7 +132,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
+                        - join.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -164,6 +168,37 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof SortMergeJoin) {
+                SortMergeJoin j = (SortMergeJoin) plan;
+                JoinPredicate jp = j.getJoinPredicate();
+                TupleDesc td = j.getTupleDesc();
+                String field1 = td.getFieldName(jp.getField1());
+                String field2 = td.getFieldName(jp.getField2()
+                        + children[0].getTupleDesc().numFields());
+                String cond = j.isBand() ? String.format("%1$s in [%2$s%3$+d,%2$s%4$+d]",
+                        field1, field2, j.getLow(), j.getHigh())
+                        : field1 + jp.getOperator() + field2;
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", MERGE_JOIN,
+                        cond, j.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (MERGE_JOIN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = MERGE_JOIN.length() / 2;
+                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                        currentDepth + 3 + adjustDepth, children[1],
+                        currentStartPosition + left.width + SPACE.length(), 0);
+                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - MERGE_JOIN.length() / 2;
+                thisNode.width = Math.max(
+                        left.width + right.width + SPACE.length(),
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = left;
+                thisNode.rightChild = right;
+                thisNode.height = currentDepth;
             }
             else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
@@ -219,11 +254,15 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
+                String fields = "";
+                for (int f : o.getOrderByFields()) {
+                    fields += (fields.isEmpty() ? "" : ",")
+                            + children[0].getTupleDesc().getFieldName(f);
+                }
                 thisNode.text = String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        fields,o.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -238,6 +277,30 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN) {
+                TopN o = (TopN) plan;
+                String fields = "";
+                for (int f : o.getOrderByFields()) {
+                    fields += "," + children[0].getTupleDesc().getFieldName(f);
+                }
+                thisNode.text = String.format(
+                        "%1$s(%2$d%3$s),card:%4$d",
+                        TOPN, o.getLimit(),
+                        fields,o.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (TOPN.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = TOPN.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - TOPN.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -0,0 +1,37 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it is full.
+ * The BufferPool tells the policy when pages enter and leave the pool and when
+ * they are accessed, and asks it for a victim when it needs a free frame.
+ * <p>
+ * Implementations must be safe to call from many threads at once.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** Tells the policy which pages may currently be evicted. */
+    interface Evictable {
+        /** @return true if pid may be evicted right now, e.g. it is clean and unpinned */
+        boolean isEvictable(PageId pid);
+    }
+
+    /** Called when pid is brought into the buffer pool. */
+    void pageLoaded(PageId pid);
+
+    /** Called on every buffer pool hit on pid. */
+    void pageAccessed(PageId pid);
+
+    /** Called when pid leaves the buffer pool, whether evicted or discarded. */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Chooses the page to evict. The policy does not forget the victim until
+     * {@link #pageRemoved} is called for it.
+     *
+     * @param evictable tells which pages may be chosen
+     * @return the page to evict, or null if no page may be evicted
+     */
+    PageId chooseVictim(Evictable evictable);
+}
@@ -11,10 +11,12 @@ public class SeqScan implements OpIterator {
 
     private static final long serialVersionUID = 1L;
 
+    private final TransactionId tid;
     private int tableId;
     private String alias;
     private TupleDesc prefixedTupleDesc;
     private DbFileIterator it;
+    private Predicate predicate;
 
     private void init(int tableId, String tableAlias) {
         this.tableId = tableId;
@@ -53,6 +55,7 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableId, String tableAlias) {
         // some code goes here
+        this.tid = tid;
         init(tableId, tableAlias);
     }
 
@@ -91,6 +94,16 @@ public class SeqScan implements OpIterator {
         init(tableid, tableAlias);
     }
 
+    /** @return the id of the table the operator scans */
+    int getTableId() {
+        return tableId;
+    }
+
+    /** @return the transaction the scan is running as a part of */
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -98,10 +111,27 @@ public class SeqScan implements OpIterator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
 //        System.out.printf("open table: %d %s\n", tableId, it);
-        it = Database.getCatalog().getDatabaseFile(tableId).iterator(null);
+        it = iterator(Database.getCatalog().getDatabaseFile(tableId));
         it.open();
     }
 
+    /** @return the iterator over file that this scan reads its tuples from */
+    DbFileIterator iterator(DbFile file) {
+        if (predicate != null && file instanceof HeapFile) {
+            return ((HeapFile) file).iterator(tid, predicate);
+        }
+        return file.iterator(tid);
+    }
+
+    /**
+     * Only return tuples that satisfy p; takes effect on the next open().
+     * Used by Filter to evaluate its predicate against the raw page bytes
+     * before tuples are decoded.
+     */
+    void setPredicate(Predicate p) {
+        predicate = p;
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
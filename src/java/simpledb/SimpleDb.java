@@ -43,8 +43,11 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            ParallelHeapFileEncoder encoder = new ParallelHeapFileEncoder(BufferPool.getPageSize(),
+                        ts, fieldSeparator, Runtime.getRuntime().availableProcessors());
+            encoder.convert(sourceTxtFile, targetDatFile);
+            System.out.printf("Converted %d rows (%.0f rows/s)%n", encoder.getRows(),
+                        encoder.getRowsPerSecond());
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
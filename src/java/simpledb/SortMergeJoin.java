@@ -0,0 +1,282 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children that are sorted in ascending order on
+ * their join fields, reading each of them once. See {@link #sorted} for
+ * putting an OrderBy under a child that isn't already sorted, e.g. by being
+ * a scan of a BTreeFile keyed on the join field.
+ * <p>
+ * Since the children are sorted, the tuples of child2 that match a tuple of
+ * child1 form a window of consecutive tuples, which only slides forward as
+ * the key of child1 grows. The window is kept in memory, and holds the
+ * duplicates of a key for all the tuples of child1 with that key. Besides
+ * the comparisons of a JoinPredicate other than NOT_EQUALS and LIKE, it can
+ * join integer fields on a band, <tt>field2 + low &lt;= field1 &lt;= field2 + high</tt>.
+ * For LESS_THAN and LESS_THAN_OR_EQ the window reaches to the end of child2,
+ * and for GREATER_THAN and GREATER_THAN_OR_EQ back to its start, so it may
+ * hold all of child2; the JoinOptimizer therefore only chooses a
+ * SortMergeJoin for equality joins of children that are already sorted.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private final boolean band;
+    private final int low, high;
+    private OpIterator child1, child2;
+    private final TupleDesc td;
+
+    transient private ArrayDeque<Tuple> window;
+    transient private Tuple pending;  // the next tuple of child2, not yet in the window
+    transient private Tuple t1;
+    transient private Iterator<Tuple> windowIt;
+
+    /**
+     * Constructor. Accepts two children, sorted on their join fields, to
+     * join and the predicate to join them on.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, in
+     *            ascending order of the first field of p
+     * @param child2
+     *            Iterator for the right(inner) relation to join, in
+     *            ascending order of the second field of p
+     * @throws IllegalArgumentException if the operator of p is NOT_EQUALS or LIKE
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canMerge(p.getOperator())) {
+            throw new IllegalArgumentException("Can't merge join on " + p.getOperator());
+        }
+        this.pred = p;
+        this.band = false;
+        this.low = this.high = 0;
+        this.child1 = child1;
+        this.child2 = child2;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Constructs a band join of the tuples whose integer fields satisfy
+     * <tt>field2 + low &lt;= field1 &lt;= field2 + high</tt>.
+     *
+     * @param child1
+     *            Iterator for the left(outer) relation to join, in
+     *            ascending order of field1
+     * @param child2
+     *            Iterator for the right(inner) relation to join, in
+     *            ascending order of field2
+     * @throws IllegalArgumentException if a field is not an INT_TYPE field, or low &gt; high
+     */
+    public SortMergeJoin(int field1, int field2, int low, int high, OpIterator child1, OpIterator child2) {
+        if (child1.getTupleDesc().getFieldType(field1) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(field2) != Type.INT_TYPE || low > high) {
+            throw new IllegalArgumentException("A band join needs integer fields and low <= high");
+        }
+        this.pred = new JoinPredicate(field1, Predicate.Op.EQUALS, field2);
+        this.band = true;
+        this.low = low;
+        this.high = high;
+        this.child1 = child1;
+        this.child2 = child2;
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return whether a SortMergeJoin can join on op */
+    public static boolean canMerge(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return whether the tuples of child are known to be in ascending order
+     *         of field: child is an ascending OrderBy on it, a merge join on
+     *         it, or a scan of a BTreeFile keyed on it, possibly under Filters
+     */
+    public static boolean isSorted(OpIterator child, int field) {
+        while (child instanceof Filter) {
+            child = ((Filter) child).getChildren()[0];
+        }
+        if (child instanceof OrderBy) {
+            OrderBy o = (OrderBy) child;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (child instanceof SortMergeJoin) {
+            // the tuples come out in the order of child1
+            return ((SortMergeJoin) child).getJoinPredicate().getField1() == field;
+        }
+        if (child instanceof SeqScan) {
+            DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) child).getTableId());
+            return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field;
+        }
+        return false;
+    }
+
+    /** @return child if it is sorted on field, else child under an OrderBy on field */
+    public static OpIterator sorted(OpIterator child, int field) {
+        return isSorted(child, field) ? child : new OrderBy(field, true, child);
+    }
+
+    /**
+     * @return the predicate to join on; for a band join, it compares the
+     *         fields with EQUALS, the band from 0 to 0
+     */
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public boolean isBand() {
+        return band;
+    }
+
+    /** @return the lower bound of field1 - field2 of a band join */
+    public int getLow() {
+        return low;
+    }
+
+    /** @return the upper bound of field1 - field2 of a band join */
+    public int getHigh() {
+        return high;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        window = new ArrayDeque<Tuple>();
+        pending = null;
+        t1 = null;
+        windowIt = null;
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        window = null;
+        pending = null;
+        t1 = null;
+        windowIt = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    /** @return k + d, saturated to the range of an int */
+    private static Field shift(Field k, int d) {
+        long v = (long) ((IntField) k).getValue() + d;
+        return new IntField((int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, v)));
+    }
+
+    /** @return whether no tuple of child2 after r can match the key k of child1 */
+    private boolean pastUpper(Field r, Field k) {
+        if (band) {
+            return r.compare(Predicate.Op.GREATER_THAN, shift(k, -low));
+        }
+        switch (pred.getOperator()) {
+        case EQUALS:
+        case GREATER_THAN_OR_EQ:
+            return r.compare(Predicate.Op.GREATER_THAN, k);
+        case GREATER_THAN:
+            return r.compare(Predicate.Op.GREATER_THAN_OR_EQ, k);
+        default:
+            return false;
+        }
+    }
+
+    /** @return whether r is too small to match k or any key of child1 after it */
+    private boolean belowLower(Field r, Field k) {
+        if (band) {
+            return r.compare(Predicate.Op.LESS_THAN, shift(k, -high));
+        }
+        switch (pred.getOperator()) {
+        case EQUALS:
+        case LESS_THAN_OR_EQ:
+            return r.compare(Predicate.Op.LESS_THAN, k);
+        case LESS_THAN:
+            return r.compare(Predicate.Op.LESS_THAN_OR_EQ, k);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples, in the format of {@link Join#fetchNext}. The tuples come
+     * out in the order of child1.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && windowIt.hasNext()) {
+                Tuple t2 = windowIt.next();
+                Tuple t = new Tuple(td);
+                int n1 = t1.getTupleDesc().numFields();
+                for (int i = 0; i < n1; i++) {
+                    t.setField(i, t1.getField(i));
+                }
+                for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+                    t.setField(n1 + i, t2.getField(i));
+                }
+                return t;
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = child1.next();
+            Field k = t1.getField(pred.getField1());
+
+            // slide the window forward over the tuples that match k
+            while (true) {
+                if (pending == null) {
+                    if (!child2.hasNext()) {
+                        break;
+                    }
+                    pending = child2.next();
+                }
+                if (pastUpper(pending.getField(pred.getField2()), k)) {
+                    break;
+                }
+                window.addLast(pending);
+                pending = null;
+            }
+            while (!window.isEmpty() && belowLower(window.peekFirst().getField(pred.getField2()), k)) {
+                window.removeFirst();
+            }
+            windowIt = window.iterator();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file that an operator writes tuples to when they
+ * don't fit in memory, e.g. the partitions of a HashEquiJoin. The tuples are
+ * stored back to back in the fixed-size format of heap pages, and are written
+ * and read sequentially, a page at a time.
+ * <p>
+ * A spill file is private to the operator that made it, so it bypasses the
+ * BufferPool: it is neither locked nor logged, nor recovered after a crash.
+ * Tuples are appended until the file is first read, after which it may only
+ * be read, any number of times, until it is deleted. The operator must
+ * delete it, at the latest when it is closed.
+ */
+public class SpillFile {
+
+    /** Default memory budget of an operator that spills, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+    /** Most partitions an operator splits its spilled tuples into at once. */
+    public static final int MAX_PARTITIONS = 64;
+    /** Levels of partitioning before an operator stops partitioning again. */
+    static final int MAX_LEVELS = 4;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples of type td.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        file = File.createTempFile("spill", ".dat");
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                    BufferPool.getPageSize()));
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /** @return how many items of itemSize bytes fit in memoryPages pages, at least 1 */
+    static int fitInPages(int memoryPages, int itemSize) {
+        long items = (long) memoryPages * BufferPool.getPageSize() / itemSize;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, items));
+    }
+
+    /**
+     * @return the number of partitions to split spilled tuples into with a
+     *         budget of memoryPages, which leaves room for their buffers
+     */
+    static int numPartitions(int memoryPages) {
+        return Math.max(2, Math.min(MAX_PARTITIONS, memoryPages / 4));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples in the file */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of pages the tuples take up */
+    public int numPages() {
+        return (int) (((long) size * td.getSize() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * Appends t to the file.
+     *
+     * @throws IllegalStateException if the file has been read
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("Spill file " + file + " has been read");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(out);
+        }
+        size++;
+    }
+
+    /** Writes out the tuples still buffered, and closes the file for appends. */
+    private void finish() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /** Deletes the file. It may not be used afterwards. */
+    public void delete() {
+        try {
+            finish();
+        } catch (IOException e) {
+            // the tuples are thrown away anyway
+        }
+        file.delete();
+    }
+
+    /** @return an iterator over the tuples in the file, in the order they were added */
+    public OpIterator iterator() {
+        return new Scan();
+    }
+
+    private class Scan implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            try {
+                finish();
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                        BufferPool.getPageSize()));
+            } catch (IOException e) {
+                throw new DbException(e.toString());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            if (in == null) {
+                throw new IllegalStateException("Spill file scan is not open");
+            }
+            return read < size;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (java.text.ParseException e) {
+                throw new DbException(e.toString());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was written
+                }
+                in = null;
+            }
+        }
+    }
+}
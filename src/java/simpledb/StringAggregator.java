@@ -1,23 +1,17 @@
 package simpledb;
 
-import java.util.*;
-
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of StringFields.
  */
 public class StringAggregator extends AggregatorImpl {
 
+    /**
+     * @throws IllegalArgumentException if what != COUNT
+     */
     public StringAggregator(int gfield, Type gfieldtype, int afield, Op what) {
         super(gfield, gfieldtype, afield, what);
-    }
-
-    @Override
-    protected IntField aggregate(List<Field> group, Op op) {
-        switch (op) {
-            case COUNT:
-                return new IntField(group.size());
-            default:
-                throw new RuntimeException("Op not supported: " + op.name());
+        if (what != Op.COUNT) {
+            throw new IllegalArgumentException("Op not supported: " + what.name());
         }
     }
 }
@@ -180,6 +180,16 @@ public class TableStats {
         return ioCostPerPage * numPages;
     }
 
+    /** @return the number of pages of the table */
+    public int numPages() {
+        return numPages;
+    }
+
+    /** @return the cost of reading one page of the table */
+    public int ioCostPerPage() {
+        return ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of the child in the order of its sort fields, like a Limit
+ * over an OrderBy. Instead of sorting the whole child, it streams it through
+ * a heap that holds the best n tuples seen so far, so it takes O(n) memory
+ * and O(log n) comparisons per tuple.
+ * <p>
+ * Tuples that are equal on the sort fields come out in the order of the
+ * child. Without sort fields TopN is a plain LIMIT, which streams the first
+ * n tuples of the child and stops reading it after them.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int limit;
+    private ArrayList<Tuple> top = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+    private int returned;  // without sort fields, the tuples of the child returned so far
+
+    /** A tuple of the child and its position, to break ties in child order. */
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first; may be empty
+     * @param ascs
+     *            for each field, true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return at most
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] ascs, int limit, OpIterator child) {
+        if (orderbyFields.length != ascs.length || limit < 0) {
+            throw new IllegalArgumentException("Need an order for each field, and a limit >= 0");
+        }
+        this.child = child;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.limit = limit;
+    }
+
+    /** @return the fields the sort is applied to, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each of getOrderByFields(), whether it is sorted ascending */
+    public boolean[] getAscs() {
+        return ascs.clone();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        if (orderByFields.length == 0) {
+            returned = 0;
+            return;
+        }
+        final TupleComparator cmp = new TupleComparator(orderByFields, ascs);
+        Comparator<Entry> order = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = cmp.compare(a.t, b.t);
+                return c != 0 ? c : Long.compare(a.seq, b.seq);
+            }
+        };
+        // the worst of the best tuples so far is at the head; the heap grows
+        // as needed, since the limit may be far larger than the child
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Collections.reverseOrder(order));
+        long seq = 0;
+        while (limit > 0 && child.hasNext()) {
+            Entry e = new Entry(child.next(), seq++);
+            if (heap.size() < limit) {
+                heap.add(e);
+            } else if (order.compare(e, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        Tuple[] sorted = new Tuple[heap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = heap.poll().t;
+        }
+        top = new ArrayList<Tuple>(Arrays.asList(sorted));
+        it = top.iterator();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        top.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (orderByFields.length == 0) {
+            child.rewind();
+            returned = 0;
+        } else {
+            it = top.iterator();
+        }
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the best tuples of the child
+     * in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (orderByFields.length == 0) {
+            if (returned < limit && child.hasNext()) {
+                returned++;
+                return child.next();
+            }
+            return null;
+        }
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
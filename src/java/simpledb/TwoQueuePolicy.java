@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement (Johnson and Shasha). New pages enter a FIFO queue, A1in,
+ * and further hits there don't promote them. When a page is evicted from
+ * A1in, its id is remembered in a ghost queue, A1out. A page that is loaded
+ * again while it is still in A1out has proven to be hot and goes to the LRU
+ * queue Am. A sequential scan therefore only cycles through A1in and leaves
+ * the pages in Am alone.
+ *
+ * @Threadsafe
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin;   // target size of A1in
+    private final int kout;  // maximum number of ghost entries in A1out
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+
+    /**
+     * Uses the sizes suggested in the paper: A1in gets a quarter of the pool
+     * and A1out remembers half a pool's worth of page ids.
+     */
+    public TwoQueuePolicy(int numPages) {
+        this(Math.max(1, numPages / 4), Math.max(1, numPages / 2));
+    }
+
+    public TwoQueuePolicy(int kin, int kout) {
+        this.kin = kin;
+        this.kout = kout;
+    }
+
+    @Override
+    public synchronized void pageLoaded(PageId pid) {
+        if (am.contains(pid) || a1in.contains(pid)) {
+            return;
+        }
+        if (a1out.remove(pid)) {
+            am.add(pid);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        // hits in A1in are treated as correlated references and ignored
+        if (am.remove(pid)) {
+            am.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = firstEvictable(a1in, evictable);
+        }
+        if (victim == null) {
+            victim = firstEvictable(am, evictable);
+        }
+        if (victim == null) {
+            victim = firstEvictable(a1in, evictable);
+        }
+        return victim;
+    }
+
+    private static PageId firstEvictable(LinkedHashSet<PageId> queue, Evictable evictable) {
+        for (PageId pid : queue) {
+            if (evictable.isEvictable(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
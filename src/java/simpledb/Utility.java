@@ -145,6 +145,19 @@ public class Utility {
         return hf;
     }
 
+    /**
+     * @return h with its bits mixed, so that the low bits of the result
+     *         depend on all of those of h; the finalizer of MurmurHash3
+     */
+    public static int mixHash(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
     public static String listToString(ArrayList<Integer> list) {
         String out = "";
         for (Integer i : list) {
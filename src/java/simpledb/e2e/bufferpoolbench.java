@@ -0,0 +1,95 @@
+package simpledb.e2e;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Multi-threaded benchmark for the BufferPool hit path. It loads a table that
+ * fits in the pool, then has 1, 2, 4, ... threads call getPage on random pages
+ * of it for a fixed time and prints the total number of lookups per second.
+ * Since every lookup is a hit, this measures the page table and the
+ * replacement policy's bookkeeping, not I/O.
+ *
+ * How to run:
+ * 1) build: ant
+ * 2) run:   java -classpath dist/simpledb.jar simpledb.e2e.bufferpoolbench [pages] [maxThreads] [seconds]
+ */
+public class bufferpoolbench {
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+
+        Database.resetBufferPool(pages);
+        final HeapFile hf = generateTable(pages);
+        final int numPages = hf.numPages();
+        System.out.printf("table: %d pages, policy: %s%n", numPages,
+                System.getProperty(BufferPool.POLICY_PROPERTY, "clock"));
+
+        // warm up, and make sure every page is cached
+        run(hf, numPages, 1, 0.5);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long ops = run(hf, numPages, threads, seconds);
+            System.out.printf("%3d threads %12.0f lookups/s%n", threads, ops / seconds);
+        }
+    }
+
+    private static long run(final HeapFile hf, final int numPages, int threads, double seconds)
+            throws InterruptedException {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int me = t;
+            workers[t] = new Thread(() -> {
+                Random r = new Random(me);
+                TransactionId tid = new TransactionId();
+                long n = 0;
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                        Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                        n++;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                counts[me] = n;
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        stop.set(true);
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += counts[t];
+        }
+        return total;
+    }
+
+    private static HeapFile generateTable(int pages) throws IOException {
+        File txt = File.createTempFile("bufferpoolbench", ".txt");
+        File dat = File.createTempFile("bufferpoolbench", ".dat");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        // one int column: a page holds (pageSize * 8) / 33 tuples
+        int rows = pages * ((BufferPool.getPageSize() * 8) / 33);
+        Random r = new Random(0);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < rows; i++) {
+            bw.write(Integer.toString(r.nextInt()));
+            bw.write('\n');
+        }
+        bw.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 1);
+        return Utility.openHeapFile(1, dat);
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.e2e;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Micro-benchmark for HeapFile page reads and full table scans.
+ * It generates a table of random integers, then reads every page of it
+ * - the old way, opening a RandomAccessFile per page ("open/close"),
+ * - through HeapFile.readPage ("pooled"), and
+ * - with a SeqScan through the BufferPool ("seqscan"),
+ * and prints the throughput of each.
+ *
+ * How to run:
+ * 1) build: ant
+ * 2) run:   java -classpath dist/simpledb.jar simpledb.e2e.scanbench [rows] [columns] [rounds]
+ */
+public class scanbench {
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File dat = generateTable(rows, columns);
+        HeapFile hf = Utility.openHeapFile(columns, dat);
+        int pageSize = BufferPool.getPageSize();
+        System.out.printf("table: %d rows, %d columns, %d pages (%.1f MB)%n",
+                rows, columns, hf.numPages(), dat.length() / (1024.0 * 1024.0));
+
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < hf.numPages(); i++) {
+                byte[] data = new byte[pageSize];
+                RandomAccessFile raf = new RandomAccessFile(dat, "r");
+                raf.seek((long) i * pageSize);
+                raf.read(data);
+                raf.close();
+                new HeapPage(new HeapPageId(hf.getId(), i), data);
+            }
+            report("open/close", hf.numPages(), pageSize, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < hf.numPages(); i++) {
+                hf.readPage(new HeapPageId(hf.getId(), i));
+            }
+            report("pooled", hf.numPages(), pageSize, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, hf.getId());
+            scan.open();
+            long count = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            report("seqscan", hf.numPages(), pageSize, System.nanoTime() - start);
+            if (count != rows) {
+                throw new IllegalStateException("scanned " + count + " rows, expected " + rows);
+            }
+        }
+    }
+
+    private static File generateTable(int rows, int columns) throws IOException {
+        File txt = File.createTempFile("scanbench", ".txt");
+        File dat = File.createTempFile("scanbench", ".dat");
+        txt.deleteOnExit();
+        dat.deleteOnExit();
+        Random r = new Random(0);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(txt));
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                if (j > 0) bw.write(',');
+                bw.write(Integer.toString(r.nextInt()));
+            }
+            bw.write('\n');
+        }
+        bw.close();
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), columns);
+        return dat;
+    }
+
+    private static void report(String name, int pages, int pageSize, long nanos) {
+        double secs = nanos / 1e9;
+        System.out.printf("%-10s %8.0f pages/s %8.1f MB/s%n", name, pages / secs,
+                pages * (double) pageSize / (1024 * 1024) / secs);
+    }
+}
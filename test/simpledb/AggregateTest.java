@@ -176,6 +176,39 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() with more groups than fit in memory,
+   * which are spilled and partitioned
+   */
+  @Test public void spillsGroups() throws Exception {
+    int[] sums = new int[5000];
+    for (int i = 0; i < 20000; i++) {
+      sums[(int) ((i * 7919L) % 5000)] += i;
+    }
+    // a page holds about 100 groups
+    Aggregate op = new Aggregate(TestUtil.createKeyedTupleList(20000, 5000), 1, 0,
+        Aggregator.Op.SUM, 1);
+    for (int pass = 0; pass < 2; pass++) {
+      if (pass == 0) {
+        op.open();
+      } else {
+        op.rewind();
+      }
+      boolean[] seen = new boolean[5000];
+      int groups = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int g = ((IntField) t.getField(0)).getValue();
+        assertTrue(!seen[g]);
+        seen[g] = true;
+        assertEquals(sums[g], ((IntField) t.getField(1)).getValue());
+        groups++;
+      }
+      assertEquals(5000, groups);
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends TestUtil.SmallPageTable<BTreeFile> {
+
+    protected BTreeFile createTable(File file, TupleDesc td) {
+        return new BTreeFile(file, 0, td);
+    }
+
+    private static List<Integer> keys(DbFileIterator it) throws Exception {
+        List<Integer> keys = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        return keys;
+    }
+
+    @Test public void scanInKeyOrder() throws Exception {
+        List<Integer> expected = insertShuffled(1000);
+        assertEquals(expected, keys(table.iterator(tid)));
+
+        // the tree survives a trip through the disk
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(1000);
+        tid = new TransactionId();
+        assertEquals(expected, keys(table.iterator(tid)));
+    }
+
+    @Test public void indexIterator() throws Exception {
+        insertShuffled(1000);
+        assertEquals(java.util.Arrays.asList(500, 500), keys(table.indexIterator(tid, Predicate.Op.EQUALS, new IntField(500))));
+        assertEquals(0, keys(table.indexIterator(tid, Predicate.Op.EQUALS, new IntField(1000))).size());
+        assertEquals(2 * 10, keys(table.indexIterator(tid, Predicate.Op.LESS_THAN, new IntField(10))).size());
+        assertEquals(2 * 11, keys(table.indexIterator(tid, Predicate.Op.LESS_THAN_OR_EQ, new IntField(10))).size());
+        assertEquals(2 * 9, keys(table.indexIterator(tid, Predicate.Op.GREATER_THAN, new IntField(990))).size());
+        assertEquals(2 * 10, keys(table.indexIterator(tid, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(990))).size());
+        assertEquals(2 * 999, keys(table.indexIterator(tid, Predicate.Op.NOT_EQUALS, new IntField(3))).size());
+    }
+
+    @Test public void deleteFreesPages() throws Exception {
+        insertShuffled(1000);
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = table.numPages();
+
+        tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        List<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            all.add(it.next());
+        }
+        it.close();
+        for (Tuple t : all) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertEquals(0, keys(table.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the freed pages are used again
+        tid = new TransactionId();
+        insertShuffled(1000);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(table.numPages() <= pages + 1);
+        tid = new TransactionId();
+        assertEquals(2000, keys(table.iterator(tid)).size());
+    }
+
+    @Test public void abortRollsBackSplits() throws Exception {
+        insertShuffled(100);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            insert(t, i, -1);
+        }
+        Database.getBufferPool().transactionComplete(t, false);
+
+        tid = new TransactionId();
+        assertEquals(200, keys(table.iterator(tid)).size());
+    }
+
+    @Test public void indexScanIsChosen() throws Exception {
+        insertShuffled(1000);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        TableStats.setTableStats("table", new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "b");
+        lp.addFilter("b.f0", Predicate.Op.EQUALS, "7");
+        lp.addProjectField("b.f0", null);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        Operator filter = (Operator) ((Operator) plan).getChildren()[0];
+        assertTrue(filter.getChildren()[0] instanceof IndexScan);
+
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            assertEquals(new IntField(7), plan.next().getField(0));
+            n++;
+        }
+        plan.close();
+        assertEquals(2, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
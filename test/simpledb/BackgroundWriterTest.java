@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BackgroundWriterTest extends TestUtil.CreateHeapFile {
+
+    private BufferPool bp;
+    private HeapPageId p0;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = writerPool(BufferPool.DEFAULT_PAGES);
+        p0 = new HeapPageId(empty.getId(), 0);
+    }
+
+    /**
+     * @return a new pool of numPages with a background writer that stays
+     *   asleep, so the test decides when pages are written
+     */
+    private static BufferPool writerPool(int numPages) {
+        System.setProperty(BufferPool.WRITER_PROPERTY, "true");
+        System.setProperty(BufferPool.HIGH_WATERMARK_PROPERTY, "1");
+        System.setProperty(BufferPool.INTERVAL_PROPERTY, "3600000");
+        try {
+            return Database.resetBufferPool(numPages);
+        } finally {
+            System.clearProperty(BufferPool.WRITER_PROPERTY);
+            System.clearProperty(BufferPool.HIGH_WATERMARK_PROPERTY);
+            System.clearProperty(BufferPool.INTERVAL_PROPERTY);
+        }
+    }
+
+    @After public void tearDown() {
+        bp.shutdown();
+    }
+
+    private void insert(Transaction t, int value) throws Exception {
+        bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(value, 2));
+    }
+
+    /** @return true if the copy of p0 on disk holds a tuple with value */
+    private boolean onDisk(int value) {
+        Iterator<Tuple> it = ((HeapPage) empty.readPage(p0)).iterator();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A commit only queues its pages; the writer puts them on disk later.
+     */
+    @Test public void commitIsNoForce() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, 17);
+        t.commit();
+
+        BackgroundWriter writer = bp.getWriter();
+        assertEquals(1, writer.size());
+        assertFalse(onDisk(17));
+
+        assertEquals(1, writer.writeBatch(0));
+        assertEquals(0, writer.size());
+        assertTrue(onDisk(17));
+        assertNull(bp.getPage(null, p0, Permissions.READ_ONLY).isDirty());
+    }
+
+    /**
+     * Aborting a transaction that changed a queued page keeps the committed
+     * changes queued and drops the aborted ones.
+     */
+    @Test public void abortKeepsCommittedChanges() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        insert(t1, 17);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        insert(t2, 42);
+        // locked by t2, so the writer has to leave the page alone
+        assertEquals(0, bp.getWriter().writeBatch(0));
+        assertFalse(onDisk(17));
+        t2.transactionComplete(true);
+
+        assertEquals(t1.getId(), bp.getPage(null, p0, Permissions.READ_ONLY).isDirty());
+        assertEquals(1, bp.getWriter().writeBatch(0));
+        assertTrue(onDisk(17));
+        assertFalse(onDisk(42));
+    }
+
+    /**
+     * A queued page that a running transaction has locked exclusively can't
+     * be written, so it can't be evicted either; when no other page can be,
+     * getPage fails instead of retrying it forever.
+     */
+    @Test(timeout = 10000) public void lockedQueuedPagesAreNotEvicted() throws Exception {
+        HeapFile f = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 1100, null, null);
+        assertEquals(3, f.numPages());
+        bp.shutdown();
+        bp = writerPool(2);
+        HeapPageId[] pids = new HeapPageId[3];
+        for (int i = 0; i < 3; i++) {
+            pids[i] = new HeapPageId(f.getId(), i);
+        }
+
+        TransactionId t1 = new TransactionId();
+        for (int i = 0; i < 2; i++) {
+            bp.getPage(t1, pids[i], Permissions.READ_WRITE).markDirty(true, t1);
+        }
+        bp.transactionComplete(t1);
+        assertEquals(2, bp.getWriter().size());
+
+        TransactionId t2 = new TransactionId();
+        bp.getPage(t2, pids[0], Permissions.READ_WRITE);
+        bp.getPage(t2, pids[1], Permissions.READ_WRITE);
+        try {
+            bp.getPage(t2, pids[2], Permissions.READ_ONLY);
+            fail("Expected a DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.transactionComplete(t2);
+
+        // once the locks are released, the pages can be written and evicted
+        TransactionId t3 = new TransactionId();
+        bp.getPage(t3, pids[2], Permissions.READ_ONLY);
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
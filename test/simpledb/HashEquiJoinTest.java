@@ -0,0 +1,96 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  /** @return the number of tuples op returns, checking that they join on their first fields */
+  private static int countMatches(OpIterator op) throws Exception {
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with a build side that fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createKeyedTupleList(1000, 100),
+        TestUtil.createKeyedTupleList(300, 300));
+    op.open();
+    assertEquals(100 * 10, countMatches(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with a build side that is spilled
+   * and partitioned twice
+   */
+  @Test public void spillsPartitions() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    // 512 build tuples fit in a page, in 2 partitions at a time
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createKeyedTupleList(20000, 5000),
+        TestUtil.createKeyedTupleList(10000, 10000), 1);
+    op.open();
+    assertEquals(5000 * 4, countMatches(op));
+
+    op.rewind();
+    assertEquals(5000 * 4, countMatches(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() with more tuples of one key than fit
+   * in memory, which partitioning can't split up
+   */
+  @Test public void skewedKeys() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createKeyedTupleList(3000, 1),
+        TestUtil.createKeyedTupleList(20, 2), 1);
+    op.open();
+    assertEquals(3000 * 10, countMatches(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() on string keys, which are not
+   * hashed as integers
+   */
+  @Test public void stringKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    java.util.ArrayList<Tuple> tups = new java.util.ArrayList<Tuple>();
+    for (int i = 0; i < 100; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField("k" + (i % 20), Type.STRING_LEN));
+      tups.add(t);
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, new TupleIterator(td, tups), new TupleIterator(td, tups));
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(1));
+      n++;
+    }
+    op.close();
+    assertEquals(20 * 5 * 5, n);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashIndexFileTest extends TestUtil.SmallPageTable<HeapFile> {
+
+    private HashIndexFile index;
+
+    protected HeapFile createTable(File file, TupleDesc td) {
+        return new HeapFile(file, td);
+    }
+
+    private void addIndex() throws Exception {
+        File file = File.createTempFile("hash", ".idx");
+        file.deleteOnExit();
+        index = new HashIndexFile(file, table, 0);
+        Database.getCatalog().addIndex(index, "table_f0");
+    }
+
+    private static List<Tuple> all(DbFileIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /** Checks that looking up each of 0..n-1 finds copies tuples with that key. */
+    private void checkLookups(int n, int copies) throws Exception {
+        for (int k = 0; k < n; k++) {
+            List<Tuple> found = all(index.lookup(tid, new IntField(k)));
+            assertEquals("key " + k, copies, found.size());
+            for (Tuple t : found) {
+                assertEquals(new IntField(k), t.getField(0));
+            }
+        }
+    }
+
+    @Test public void insertAndLookup() throws Exception {
+        addIndex();
+        insertShuffled(1000);
+        assertEquals(2000, all(index.iterator(tid)).size());
+        checkLookups(1000, 2);
+        assertEquals(0, all(index.lookup(tid, new IntField(1000))).size());
+        HashIndexMetaPage meta = (HashIndexMetaPage) Database.getBufferPool()
+                .getPage(tid, index.getMetaId(), Permissions.READ_ONLY);
+        assertTrue(meta.numBuckets() > 16);
+
+        // the index survives a trip through the disk
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(1000);
+        tid = new TransactionId();
+        checkLookups(1000, 2);
+    }
+
+    @Test public void deleteRemovesEntries() throws Exception {
+        addIndex();
+        insertShuffled(500);
+        for (Tuple t : all(table.iterator(tid))) {
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        assertEquals(500, all(index.iterator(tid)).size());
+        for (int k = 0; k < 500; k++) {
+            assertEquals(k % 2 == 0 ? 0 : 2, all(index.lookup(tid, new IntField(k))).size());
+        }
+    }
+
+    @Test public void buildIndexesExistingTuples() throws Exception {
+        insertShuffled(1000);
+        Database.getBufferPool().transactionComplete(tid);
+
+        addIndex();
+        tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(2000, all(index.iterator(tid)).size());
+        checkLookups(1000, 2);
+
+        // and keeps up with later inserts
+        for (int k = 0; k < 1000; k++) {
+            insert(tid, k, -1);
+        }
+        checkLookups(1000, 3);
+    }
+
+    @Test public void abortRollsBackSplits() throws Exception {
+        addIndex();
+        insertShuffled(50);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            insert(t, i, -1);
+        }
+        Database.getBufferPool().transactionComplete(t, false);
+
+        tid = new TransactionId();
+        assertEquals(100, all(index.iterator(tid)).size());
+        checkLookups(50, 2);
+    }
+
+    @Test public void indexScanIsChosen() throws Exception {
+        addIndex();
+        insertShuffled(1000);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        TableStats.setTableStats("table", new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "h");
+        lp.addFilter("h.f0", Predicate.Op.EQUALS, "7");
+        lp.addProjectField("h.f1", null);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        Operator filter = (Operator) ((Operator) plan).getChildren()[0];
+        assertTrue(filter.getChildren()[0] instanceof IndexScan);
+
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        assertEquals(2, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -43,6 +43,66 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * A slot freed on a full page is reused before a new page is added.
+     */
+    @Test public void reuseFreedSlot() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504 * 2; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+    }
+
+    private int count(TransactionId t) throws Exception {
+        DbFileIterator it = empty.iterator(t);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test for HeapFile.BulkAppender
+     */
+    @Test public void bulkAppend() throws Exception {
+        HeapFile.BulkAppender appender = empty.bulkAppender(tid);
+        int n = 504 * (HeapFile.BulkAppender.CHUNK_PAGES + 1) + 1;
+        for (int i = 0; i < n; ++i) {
+            appender.append(Utility.getHeapTuple(i, 2));
+        }
+        appender.close();
+        // the bulk loaded pages come after the file's first, empty page
+        assertEquals(1 + HeapFile.BulkAppender.CHUNK_PAGES + 2, empty.numPages());
+        assertEquals(n, count(tid));
+    }
+
+    /**
+     * Bulk appended tuples are gone once the transaction aborts.
+     */
+    @Test public void bulkAppendAbort() throws Exception {
+        HeapFile.BulkAppender appender = empty.bulkAppender(tid);
+        for (int i = 0; i < 1000; ++i) {
+            appender.append(Utility.getHeapTuple(i, 2));
+        }
+        appender.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(0, count(tid));
+    }
+
     /**
      * JUnit suite target
      */
@@ -120,6 +120,40 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) page.getField(i, 0)).getValue());
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate)
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        Iterator<Tuple> it = page.iterator(p);
+
+        int matches = 0;
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 30000) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(tuple[0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(tuple[1], ((IntField) tup.getField(1)).getValue());
+                matches++;
+            }
+        }
+        assertFalse(it.hasNext());
+        assertEquals(9, matches);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private HeapFile outer;
+    private HeapFile inner;
+    private BTreeFile tree;
+    private TransactionId tid;
+
+    private static File tempFile(String suffix) throws Exception {
+        File file = File.createTempFile("join", suffix);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void insert(TransactionId t, DbFile f, int a, int b) throws Exception {
+        Tuple tup = new Tuple(f.getTupleDesc());
+        tup.setField(0, new IntField(a));
+        tup.setField(1, new IntField(b));
+        Database.getBufferPool().insertTuple(t, f.getId(), tup);
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages make scanning the inner relation cost more than probing it
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(1000);
+        outer = new HeapFile(tempFile(".dat"), Utility.getTupleDesc(2, "o"));
+        Database.getCatalog().addTable(outer, "outer");
+        inner = new HeapFile(tempFile(".dat"), Utility.getTupleDesc(2, "i"));
+        Database.getCatalog().addTable(inner, "inner");
+        Database.getCatalog().addIndex(new HashIndexFile(tempFile(".idx"), inner, 0), "inner_i0");
+        tree = new BTreeFile(tempFile(".dat"), 0, Utility.getTupleDesc(2, "t"));
+        Database.getCatalog().addTable(tree, "tree");
+
+        tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            insert(tid, outer, i, i);
+        }
+        for (int i = 0; i < 2000; i++) {
+            insert(tid, inner, i % 500, i);
+            insert(tid, tree, i, i);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+    }
+
+    @Test public void hashProbe() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator filtered = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000)),
+                new SeqScan(tid, inner.getId(), "i"));
+        Join join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"), filtered);
+        assertEquals(200, TestUtil.count(join));
+
+        // rewinding starts over from the first outer tuple
+        join.open();
+        join.next();
+        join.rewind();
+        int n = 0;
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(2));
+            n++;
+        }
+        join.close();
+        assertEquals(200, n);
+    }
+
+    @Test public void btreeRangeProbe() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        Join join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, tree.getId(), "t"));
+        Join expected = new Join(p, new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, tree.getId(), "t"));
+        assertEquals(100 * 99 / 2, TestUtil.count(join));
+        assertEquals(TestUtil.count(expected), TestUtil.count(join));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInnerWithoutIndex() throws Exception {
+        new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, inner.getId(), "i"), new SeqScan(tid, outer.getId(), "o"));
+    }
+
+    @Test public void chosenForSmallOuter() throws Exception {
+        TableStats.setTableStats("outer", new TableStats(outer.getId(), TableStats.IOCOSTPERPAGE));
+        TableStats.setTableStats("inner", new TableStats(inner.getId(), TableStats.IOCOSTPERPAGE));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        lp.addFilter("o.o0", Predicate.Op.LESS_THAN, "5");
+        lp.addJoin("o.o0", "i.i0", Predicate.Op.EQUALS);
+        lp.addProjectField("i.i1", null);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexNestedLoopJoin);
+        assertEquals(5 * 4, TestUtil.count(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntKeyHashTableTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for IntKeyHashTable.put() and get() as the table grows
+   */
+  @Test public void putGet() {
+    IntKeyHashTable table = new IntKeyHashTable();
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(IntKeyHashTable.MISSING, table.put(i * 31 - 5000, i));
+    }
+    assertEquals(10000, table.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i, table.get(i * 31 - 5000));
+    }
+    assertEquals(IntKeyHashTable.MISSING, table.get(1));
+
+    // keys may be any int, including the extremes
+    table.put(Integer.MIN_VALUE, 1);
+    table.put(Integer.MAX_VALUE, 2);
+    assertEquals(1, table.get(Integer.MIN_VALUE));
+    assertEquals(2, table.get(Integer.MAX_VALUE));
+  }
+
+  /**
+   * Unit test for IntKeyHashTable.put() replacing a value, and clear()
+   */
+  @Test public void replaceAndClear() {
+    IntKeyHashTable table = new IntKeyHashTable();
+    table.put(7, 1);
+    assertEquals(1, table.put(7, 2));
+    assertEquals(2, table.get(7));
+    assertEquals(1, table.size());
+
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(IntKeyHashTable.MISSING, table.get(7));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntKeyHashTableTest.class);
+  }
+}
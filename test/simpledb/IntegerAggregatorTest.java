@@ -126,6 +126,42 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test an avg split into partial aggregates of two halves of the tuples,
+   * and a final aggregate over the partial results
+   */
+  @Test public void partialAndFinalAvg() throws Exception {
+    scan1.open();
+    Aggregator.Op partial = AggregatorImpl.partialOp(Aggregator.Op.AVG);
+    IntegerAggregator half1 = new IntegerAggregator(0, Type.INT_TYPE, 1, partial);
+    IntegerAggregator half2 = new IntegerAggregator(0, Type.INT_TYPE, 1, partial);
+    for (int i = 0; scan1.hasNext(); i++) {
+      (i < 2 ? half1 : half2).mergeTupleIntoGroup(scan1.next());
+    }
+
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1,
+        AggregatorImpl.finalOp(Aggregator.Op.AVG));
+    for (IntegerAggregator half : new IntegerAggregator[] { half1, half2 }) {
+      OpIterator it = half.iterator();
+      it.open();
+      while (it.hasNext()) {
+        agg.mergeTupleIntoGroup(it.next());
+      }
+      it.close();
+    }
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 3, 4, 5, 7 }), it);
+    it.rewind();
+    int groups = 0;
+    while (it.hasNext()) {
+      it.next();
+      groups++;
+    }
+    assertEquals(3, groups);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
@@ -0,0 +1,98 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest {
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /** Starts a thread that acquires a lock and then stays blocked or finishes. */
+    private Thread acquireInBackground(final TransactionId tid, final PageId pid,
+            final boolean exclusive, final Exception[] error) {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, exclusive);
+            } catch (TransactionAbortedException e) {
+                error[0] = e;
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private static void awaitBlocked(Thread t) throws InterruptedException {
+        while (t.getState() != Thread.State.WAITING && t.isAlive()) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * The request that closes a cycle in the wait-for graph is refused at
+     * once, and the other transaction gets its lock when the victim releases.
+     */
+    @Test public void deadlockIsDetected() throws Exception {
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, true);
+
+        Exception[] error = new Exception[1];
+        Thread waiter = acquireInBackground(tid1, p1, true, error);
+        awaitBlocked(waiter);
+        assertTrue(waiter.isAlive());
+
+        try {
+            lm.acquire(tid2, p0, true);
+            fail("expected a deadlock");
+        } catch (TransactionAbortedException expected) {
+        }
+        lm.releaseAll(tid2);
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertNull(error[0]);
+        assertTrue(lm.holdsExclusive(tid1, p1));
+        assertEquals(1, lm.getWaitStats().getDeadlocks());
+    }
+
+    /**
+     * Time spent waiting for a lock is recorded for its page.
+     */
+    @Test public void waitTimeIsRecorded() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, false);
+        assertEquals(0, lm.getWaitStats(p0).getWaits());
+
+        // the upgrade has to wait for tid2's shared lock
+        Exception[] error = new Exception[1];
+        Thread upgrader = acquireInBackground(tid1, p0, true, error);
+        awaitBlocked(upgrader);
+        Thread.sleep(20);
+        lm.release(tid2, p0);
+        upgrader.join(5000);
+        assertNull(error[0]);
+
+        LockManager.WaitStats stats = lm.getWaitStats(p0);
+        assertEquals(1, stats.getWaits());
+        assertTrue(stats.getMaxWaitNanos() >= 20000000L);
+        assertEquals(0, lm.getWaitStats(p1).getWaits());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,329 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    // BEGIN and COMMIT records: type, tid, start offset
+    private static final int RECORD_BYTES = 4 + 8 + 8;
+
+    private LogFile log;
+    private final String groupCommit = System.getProperty(LogFile.GROUP_COMMIT_PROPERTY);
+    private final String commitDelay = System.getProperty(LogFile.COMMIT_DELAY_PROPERTY);
+    private final String recoveryThreads = System.getProperty(LogFile.RECOVERY_THREADS_PROPERTY);
+    private final String segmentSize = System.getProperty(LogFile.SEGMENT_SIZE_PROPERTY);
+    private final String archiveDir = System.getProperty(LogFile.ARCHIVE_DIR_PROPERTY);
+
+    private static void restore(String property, String value) {
+        if (value == null) {
+            System.clearProperty(property);
+        } else {
+            System.setProperty(property, value);
+        }
+    }
+
+    @After public void tearDown() {
+        restore(LogFile.GROUP_COMMIT_PROPERTY, groupCommit);
+        restore(LogFile.COMMIT_DELAY_PROPERTY, commitDelay);
+        restore(LogFile.RECOVERY_THREADS_PROPERTY, recoveryThreads);
+        restore(LogFile.SEGMENT_SIZE_PROPERTY, segmentSize);
+        restore(LogFile.ARCHIVE_DIR_PROPERTY, archiveDir);
+        if (log != null) {
+            log.close();
+            // the segments and spares next to it
+            for (File f : log.logFile.getAbsoluteFile().getParentFile().listFiles()) {
+                if (f.getName().startsWith(log.logFile.getName() + ".")) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    private LogFile newLog() throws Exception {
+        File f = File.createTempFile("log", null);
+        f.deleteOnExit();
+        log = new LogFile(f);
+        return log;
+    }
+
+    private static HeapFile newTable(int pages) throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        for (int i = 1; i < pages; i++) {
+            table.writePage(new HeapPage(new HeapPageId(table.getId(), i), HeapPage.createEmptyPageData()));
+        }
+        return table;
+    }
+
+    /** @return the first fields of the tuples on page pageNo of table, on disk */
+    private static Set<Integer> onDisk(HeapFile table, int pageNo) {
+        Set<Integer> values = new HashSet<Integer>();
+        Iterator<Tuple> it = ((HeapPage) table.readPage(new HeapPageId(table.getId(), pageNo))).iterator();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return values;
+    }
+
+    /** Logs the insertion of value into page, as flushing the page would. */
+    private static void insert(LogFile log, TransactionId tid, HeapPage page, int value) throws Exception {
+        page.setBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(value, 2));
+        log.logWrite(tid, page.getBeforeImage(), page);
+    }
+
+    /**
+     * A commit record is on disk when logCommit returns.
+     */
+    @Test public void commitIsDurable() throws Exception {
+        LogFile log = newLog();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertEquals(2 * RECORD_BYTES, log.getStats().getBytesWritten());
+        assertEquals(1, log.getStats().getCommits());
+        assertEquals(1, log.getStats().getFsyncs());
+    }
+
+    /**
+     * Transactions committing together share fsyncs.
+     */
+    @Test public void concurrentCommitsShareFsyncs() throws Exception {
+        System.setProperty(LogFile.GROUP_COMMIT_PROPERTY, "true");
+        System.setProperty(LogFile.COMMIT_DELAY_PROPERTY, "50000");
+        final LogFile log = newLog();
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Exception> errors = new ArrayList<Exception>();
+        List<Thread> committers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        start.await();
+                        log.logCommit(tid);
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            t.start();
+            committers.add(t);
+        }
+        start.countDown();
+        for (Thread t : committers) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        LogFile.Stats stats = log.getStats();
+        assertEquals(threads, stats.getCommits());
+        assertTrue(stats.toString(), stats.getFsyncs() < threads);
+        assertEquals(2 * threads * RECORD_BYTES, stats.getBytesWritten());
+    }
+
+    /**
+     * Only the first change to a page after a checkpoint logs its full
+     * image; later ones log the changed slots.
+     */
+    @Test public void laterChangesAreDeltas() throws Exception {
+        LogFile log = newLog();
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.force();
+
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        log.logWrite(tid, page.getBeforeImage(), page);
+        log.force();
+        long full = log.getStats().getBytesWritten();
+        assertTrue(full > 2 * BufferPool.getPageSize());
+
+        page.setBeforeImage();
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        HeapPage before = page.getBeforeImage();
+        log.logWrite(tid, before, page);
+        log.force();
+        long delta = log.getStats().getBytesWritten() - full;
+        assertTrue("delta record of " + delta + " bytes", delta < 100);
+
+        PageDelta d = PageDelta.diff(before, page);
+        byte[] data = page.getPageData();
+        d.undo(data);
+        assertArrayEquals(before.getPageData(), data);
+        d.redo(data);
+        assertArrayEquals(page.getPageData(), data);
+    }
+
+    /**
+     * After a crash, committed changes that never reached the data file are
+     * redone, and changes of transactions that didn't finish are undone.
+     */
+    @Test public void recoverRedoesWinnersAndUndoesLosers() throws Exception {
+        System.setProperty(LogFile.RECOVERY_THREADS_PROPERTY, "3");
+        LogFile log = newLog();
+        HeapFile table = newTable(2);
+        HeapPage p0 = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+        HeapPage p1 = new HeapPage(new HeapPageId(table.getId(), 1), HeapPage.createEmptyPageData());
+
+        // committed, but never written to the table
+        TransactionId winner = new TransactionId();
+        log.logXactionBegin(winner);
+        insert(log, winner, p0, 1);
+        insert(log, winner, p0, 2);
+        insert(log, winner, p1, 10);
+        log.logCommit(winner);
+
+        // not committed; page 0 went to the table along with the winner's
+        // changes, page 1 didn't
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        insert(log, loser, p0, 3);
+        insert(log, loser, p1, 11);
+        log.force();
+        table.writePage(p0);
+        log.close();
+        assertEquals(new HashSet<Integer>(), onDisk(table, 1));
+
+        LogFile recovered = new LogFile(log.logFile);
+        recovered.recover();
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), onDisk(table, 0));
+        assertEquals(new HashSet<Integer>(Arrays.asList(10)), onDisk(table, 1));
+
+        // the loser is aborted now, so recovering again changes nothing
+        recovered.close();
+        recovered = new LogFile(log.logFile);
+        recovered.recover();
+        recovered.close();
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), onDisk(table, 0));
+        assertEquals(new HashSet<Integer>(Arrays.asList(10)), onDisk(table, 1));
+    }
+
+    /**
+     * Rolling back a transaction restores the pages it wrote to disk.
+     */
+    @Test public void rollbackRestoresPages() throws Exception {
+        LogFile log = newLog();
+        HeapFile table = newTable(1);
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+
+        TransactionId committed = new TransactionId();
+        log.logXactionBegin(committed);
+        insert(log, committed, page, 1);
+        table.writePage(page);
+        log.logCommit(committed);
+
+        TransactionId aborted = new TransactionId();
+        log.logXactionBegin(aborted);
+        insert(log, aborted, page, 2);
+        insert(log, aborted, page, 3);
+        log.force();
+        table.writePage(page);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), onDisk(table, 0));
+
+        log.logAbort(aborted);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1)), onDisk(table, 0));
+    }
+
+    /**
+     * A checkpoint doesn't write dirty pages; recovery redoes them from the
+     * oldest change in the checkpoint's dirty page table.
+     */
+    @Test public void checkpointRecordsDirtyPages() throws Exception {
+        LogFile log = newLog();
+        HeapFile table = newTable(2);
+        HeapPage p0 = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+        HeapPage p1 = new HeapPage(new HeapPageId(table.getId(), 1), HeapPage.createEmptyPageData());
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        insert(log, tid, p0, 1);
+        insert(log, tid, p1, 10);
+        log.logCommit(tid);
+        // page 1 reaches the table, page 0 stays dirty across the checkpoint
+        table.writePage(p1);
+        log.pageWritten(p1.getId());
+        log.logCheckpoint();
+        log.close();
+        assertEquals(new HashSet<Integer>(), onDisk(table, 0));
+
+        LogFile recovered = new LogFile(log.logFile);
+        recovered.recover();
+        recovered.close();
+        assertEquals(new HashSet<Integer>(Arrays.asList(1)), onDisk(table, 0));
+        assertEquals(new HashSet<Integer>(Arrays.asList(10)), onDisk(table, 1));
+    }
+
+    /**
+     * Truncation releases the segments recovery no longer needs, and records
+     * spanning segments are read back whole.
+     */
+    @Test public void truncateReleasesSegments() throws Exception {
+        System.setProperty(LogFile.SEGMENT_SIZE_PROPERTY, "1024");
+        File archive = File.createTempFile("archive", null);
+        archive.delete();
+        System.setProperty(LogFile.ARCHIVE_DIR_PROPERTY, archive.getPath());
+        LogFile log = newLog();
+        HeapFile table = newTable(1);
+        HeapPage page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+        for (int i = 0; i < 3; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            insert(log, tid, page, i);
+            log.logCommit(tid);
+            table.writePage(page);
+            log.pageWritten(page.getId());
+        }
+        File first = log.segments.segmentFile(0);
+        assertTrue(first.exists());
+
+        // still running, and its change never reaches the table
+        TransactionId running = new TransactionId();
+        log.logXactionBegin(running);
+        log.logCheckpoint();
+        log.segments.sync();
+        assertFalse(first.exists());
+        assertTrue(new File(archive, first.getName()).delete());
+        insert(log, running, page, 3);
+        log.logCommit(running);
+        log.close();
+
+        LogFile recovered = new LogFile(log.logFile);
+        recovered.recover();
+        recovered.close();
+        assertEquals(new HashSet<Integer>(Arrays.asList(0, 1, 2, 3)), onDisk(table, 0));
+        for (File f : archive.listFiles()) {
+            f.delete();
+        }
+        archive.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private MappedHeapFile mhf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1000, null, tuples);
+        mhf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mhf, "mapped");
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages read through the mapping match pages read with HeapFile.readPage()
+     */
+    @Test
+    public void readPage() throws Exception {
+        HeapFile hf = new HeapFile(mhf.getFile(), mhf.getTupleDesc());
+        for (int i = 0; i < mhf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mhf.getId(), i);
+            HeapPage mapped = (HeapPage) mhf.readPage(pid);
+            HeapPage read = (HeapPage) hf.readPage(pid);
+            assertArrayEquals(read.getPageData(), mapped.getPageData());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readMissingPage() throws Exception {
+        mhf.readPage(new HeapPageId(mhf.getId(), mhf.numPages()));
+    }
+
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(mhf, tid, tuples);
+    }
+
+    /**
+     * Pages appended to the file are visible once the segment is remapped
+     */
+    @Test
+    public void readAfterGrowth() throws Exception {
+        int pages = mhf.numPages();
+        mhf.readPage(new HeapPageId(mhf.getId(), pages - 1));
+
+        HeapPageId pid = new HeapPageId(mhf.getId(), pages);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        mhf.writePage(page);
+        assertEquals(pages + 1, mhf.numPages());
+
+        HeapPage last = (HeapPage) mhf.readPage(pid);
+        assertEquals(page.numSlots - 1, last.getNumEmptySlots());
+        Iterator<Tuple> it = last.iterator();
+        assertEquals(7, ((IntField) it.next().getField(0)).getValue());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
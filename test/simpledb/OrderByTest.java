@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /**
+   * @return the number of tuples op returns, checking that they are
+   *   ascending on field 0 and, for equal field 0, descending on field 1
+   */
+  private static int checkOrder(OpIterator op) throws Exception {
+    int n = 0;
+    Tuple prev = null;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      if (prev != null) {
+        int a = ((IntField) prev.getField(0)).getValue();
+        int b = ((IntField) t.getField(0)).getValue();
+        assertTrue(a <= b);
+        if (a == b) {
+          assertTrue(((IntField) prev.getField(1)).getValue() > ((IntField) t.getField(1)).getValue());
+        }
+      }
+      prev = t;
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on two fields, in memory
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        TestUtil.createKeyedTupleList(1000, 37));
+    op.open();
+    assertEquals(1000, checkOrder(op));
+    op.rewind();
+    assertEquals(1000, checkOrder(op));
+    op.close();
+
+    // reopening doesn't read the child on top of the tuples of before
+    op.open();
+    assertEquals(1000, checkOrder(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() with more runs than it merges at once
+   */
+  @Test public void external() throws Exception {
+    // 3 pages hold 1536 tuples, and 2 runs are merged at a time
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        TestUtil.createKeyedTupleList(20000, 5000), 3);
+    op.open();
+    assertEquals(20000, checkOrder(op));
+    op.rewind();
+    assertEquals(20000, checkOrder(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for a descending OrderBy on a single field
+   */
+  @Test public void descending() throws Exception {
+    OrderBy op = new OrderBy(0, false, TestUtil.createKeyedTupleList(500, 500));
+    op.open();
+    int prev = Integer.MAX_VALUE;
+    int n = 0;
+    while (op.hasNext()) {
+      int v = ((IntField) op.next().getField(0)).getValue();
+      assertTrue(v <= prev);
+      prev = v;
+      n++;
+    }
+    op.close();
+    assertEquals(500, n);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
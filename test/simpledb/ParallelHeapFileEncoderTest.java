@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParallelHeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Encodes in with both encoders and checks that the outputs match.
+     */
+    private static void assertSameOutput(File in, Type[] types, long rows) throws IOException {
+        File serial = tempFile(".dat");
+        File parallel = tempFile(".dat");
+        HeapFileEncoder.convert(in, serial, BufferPool.getPageSize(), types.length, types, ',');
+        ParallelHeapFileEncoder encoder = new ParallelHeapFileEncoder(BufferPool.getPageSize(), types, ',', 3);
+        assertEquals(rows, encoder.convert(in, parallel));
+        assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+    }
+
+    /**
+     * Output is identical to HeapFileEncoder's over several batches of pages,
+     * with blank lines, CRLF line ends and a partly filled last page.
+     */
+    @Test public void matchesSerialEncoder() throws IOException {
+        File in = tempFile(".txt");
+        Random r = new Random(1);
+        int rows = 504 * ParallelHeapFileEncoder.PAGES_PER_BATCH * 2 + 17;
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; i++) {
+            bw.write(r.nextInt() + ", " + r.nextInt(1000));
+            bw.write(i % 1000 == 0 ? "\r\n\n" : "\n");
+        }
+        bw.close();
+        assertSameOutput(in, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, rows);
+    }
+
+    @Test public void strings() throws IOException {
+        File in = tempFile(".txt");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < 1000; i++) {
+            bw.write(i + ", name" + i + " ,");
+            for (int j = 0; j < i % 200; j++) {
+                bw.write('x');
+            }
+            bw.write('\n');
+        }
+        bw.close();
+        assertSameOutput(in, new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE }, 1000);
+    }
+
+    @Test public void emptyInput() throws IOException {
+        assertSameOutput(tempFile(".txt"), new Type[] { Type.INT_TYPE }, 0);
+    }
+
+    @Test(expected = IOException.class) public void malformedLine() throws IOException {
+        File in = tempFile(".txt");
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        bw.write("1,2\n3,x\n");
+        bw.close();
+        new ParallelHeapFileEncoder(BufferPool.getPageSize(), new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 2)
+                .convert(in, tempFile(".dat"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelHeapFileEncoderTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest {
+
+    private static final ReplacementPolicy.Evictable ALL = pid -> true;
+
+    private static PageId pid(int pageNo) {
+        return new HeapPageId(1, pageNo);
+    }
+
+    /**
+     * References pages from .. to-1, loading them into the pool and evicting
+     * as needed.
+     */
+    private static void load(ReplacementPolicy policy, Set<PageId> pool, int capacity, int from, int to) {
+        for (int i = from; i < to; i++) {
+            PageId p = pid(i);
+            if (pool.contains(p)) {
+                policy.pageAccessed(p);
+                continue;
+            }
+            if (pool.size() == capacity) {
+                PageId victim = policy.chooseVictim(ALL);
+                assertNotNull(victim);
+                assertTrue(pool.remove(victim));
+                policy.pageRemoved(victim);
+            }
+            pool.add(p);
+            policy.pageLoaded(p);
+        }
+    }
+
+    /**
+     * A recently referenced page gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy(3);
+        for (int i = 0; i < 3; i++) {
+            clock.pageLoaded(pid(i));
+        }
+        // the first sweep clears every bit; page 0 is then the first victim
+        assertEquals(pid(0), clock.chooseVictim(ALL));
+        clock.pageAccessed(pid(0));
+        assertEquals(pid(1), clock.chooseVictim(ALL));
+    }
+
+    /**
+     * Pages that can't be evicted are skipped, and null is returned when
+     * nothing can be evicted.
+     */
+    @Test public void skipsUnevictable() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new ClockPolicy(3), new LruKPolicy(2), new TwoQueuePolicy(3) };
+        for (ReplacementPolicy policy : policies) {
+            for (int i = 0; i < 3; i++) {
+                policy.pageLoaded(pid(i));
+            }
+            assertEquals(pid(2), policy.chooseVictim(pid -> pid.equals(pid(2))));
+            assertNull(policy.chooseVictim(pid -> false));
+        }
+    }
+
+    /**
+     * A sequential scan bigger than the pool doesn't flush a hot working set.
+     */
+    @Test public void scanResistance() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new LruKPolicy(2), new TwoQueuePolicy(10) };
+        for (ReplacementPolicy policy : policies) {
+            Set<PageId> pool = new HashSet<PageId>();
+            // pages 0-4 are the working set, referenced repeatedly
+            for (int round = 0; round < 10; round++) {
+                load(policy, pool, 10, 0, 5);
+                load(policy, pool, 10, 100 + round * 2, 102 + round * 2);
+            }
+            // a scan over 100 pages
+            load(policy, pool, 10, 1000, 1100);
+            for (int i = 0; i < 5; i++) {
+                assertTrue(policy.getClass().getSimpleName() + " evicted hot page " + i,
+                        pool.contains(pid(i)));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for SortMergeJoin.getNext() on every comparison, with
+     * duplicate keys on both sides
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            OpIterator merge = new SortMergeJoin(p,
+                    SortMergeJoin.sorted(TestUtil.createKeyedTupleList(200, 30), 0),
+                    SortMergeJoin.sorted(TestUtil.createKeyedTupleList(150, 45), 0));
+            OpIterator expected = new Join(p, TestUtil.createKeyedTupleList(200, 30),
+                    TestUtil.createKeyedTupleList(150, 45));
+            assertEquals(op.toString(), TestUtil.count(expected), TestUtil.count(merge));
+        }
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getNext(), checking that the tuples come
+     * out in the order of child1 and start over on rewind
+     */
+    @Test public void orderedAndRewinds() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        OpIterator merge = new SortMergeJoin(p,
+                SortMergeJoin.sorted(TestUtil.createKeyedTupleList(100, 10), 0),
+                SortMergeJoin.sorted(TestUtil.createKeyedTupleList(40, 10), 0));
+        merge.open();
+        merge.next();
+        merge.rewind();
+        int n = 0;
+        Field prev = null;
+        while (merge.hasNext()) {
+            Tuple t = merge.next();
+            assertEquals(t.getField(0), t.getField(2));
+            if (prev != null) {
+                assertTrue(prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(0)));
+            }
+            prev = t.getField(0);
+            n++;
+        }
+        merge.close();
+        assertEquals(10 * 10 * 4, n);
+        assertTrue(SortMergeJoin.isSorted(merge, 0));
+    }
+
+    /**
+     * Unit test for a band join, field2 - 2 &lt;= field1 &lt;= field2 + 1
+     */
+    @Test public void band() throws Exception {
+        OpIterator merge = new SortMergeJoin(0, 0, -2, 1,
+                SortMergeJoin.sorted(TestUtil.createKeyedTupleList(100, 50), 0),
+                SortMergeJoin.sorted(TestUtil.createKeyedTupleList(60, 60), 0));
+        int expected = 0;
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 60; j++) {
+                int d = (i * 7919) % 50 - (j * 7919) % 60;
+                if (d >= -2 && d <= 1) {
+                    expected++;
+                }
+            }
+        }
+        assertEquals(expected, TestUtil.count(merge));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNotEquals() throws Exception {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                TestUtil.createKeyedTupleList(1, 1), TestUtil.createKeyedTupleList(1, 1));
+    }
+
+    /** @return a BTreeFile of n two-field tuples {i % keys, i}, keyed on field 0 */
+    private static BTreeFile tree(String name, int n, int keys) throws Exception {
+        File file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        BTreeFile f = new BTreeFile(file, 0, Utility.getTupleDesc(2, name));
+        Database.getCatalog().addTable(f, name);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i % keys));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.setTableStats(name, new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+        return f;
+    }
+
+    /** @return the plan of joining l.a0 and r.b0 with op */
+    private static OpIterator plan(TransactionId tid, BTreeFile left, BTreeFile right, Predicate.Op op)
+            throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(left.getId(), "l");
+        lp.addScan(right.getId(), "r");
+        lp.addJoin("l.a0", "r.b0", op);
+        lp.addProjectField("l.a1", null);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    /**
+     * The optimizer merges sorted tables on equality, but not on other
+     * comparisons, for which the window may hold all of the right table
+     */
+    @Test public void chosenForSortedEquiJoin() throws Exception {
+        BTreeFile left = tree("a", 300, 100);
+        BTreeFile right = tree("b", 200, 50);
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, left, right, Predicate.Op.EQUALS);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof SortMergeJoin);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertEquals(TestUtil.count(new Join(p, new SeqScan(tid, left.getId()), new SeqScan(tid, right.getId()))),
+                TestUtil.count(plan));
+
+        plan = plan(tid, left, right, Predicate.Op.GREATER_THAN);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof SortMergeJoin);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -3,8 +3,13 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 
+import org.junit.After;
+import org.junit.Before;
+
 import static org.junit.Assert.*;
 
+import simpledb.systemtest.SimpleDbTestBase;
+
 public class TestUtil {
     /**
      * @return an IntField with value n
@@ -83,6 +88,36 @@ public class TestUtil {
         return result;
     }
 
+    /**
+     * @return a OpIterator over n tuples of two int fields, the ith being
+     *   {(i * 7919) % keys, i}, so that each key recurs every keys tuples
+     *   and the keys come out of order. This iterator is already open.
+     */
+    public static TupleIterator createKeyedTupleList(int n, int keys) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = (int) ((i * 7919L) % keys);
+            data[2 * i + 1] = i;
+        }
+        return createTupleList(2, data);
+    }
+
+    /**
+     * @return the number of tuples the OpIterator returns, opening it
+     *   first and closing it afterward
+     */
+    public static int count(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
     /**
      * @return true iff the tuples have the same number of fields and
      *   corresponding fields in the two Tuples are all equal.
@@ -394,4 +429,57 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * JUnit fixture for file tests: a table of two int fields, named
+     * "table", over small pages, so that few tuples fill many pages.
+     */
+    public static abstract class SmallPageTable<F extends DbFile> extends SimpleDbTestBase {
+        protected F table;
+        protected TransactionId tid;
+
+        /** @return the table to test, stored in file */
+        protected abstract F createTable(File file, TupleDesc td) throws IOException;
+
+        @Before public void setUp() throws Exception {
+            super.setUp();
+            BufferPool.setPageSize(256);
+            Database.resetBufferPool(1000);
+            File file = File.createTempFile("table", ".dat");
+            file.deleteOnExit();
+            table = createTable(file, Utility.getTupleDesc(2, "f"));
+            Database.getCatalog().addTable(table, "table");
+            tid = new TransactionId();
+        }
+
+        @After public void tearDown() throws Exception {
+            Database.getBufferPool().transactionComplete(tid);
+            BufferPool.resetPageSize();
+        }
+
+        protected void insert(TransactionId t, int key, int value) throws Exception {
+            Tuple tup = new Tuple(table.getTupleDesc());
+            tup.setField(0, new IntField(key));
+            tup.setField(1, new IntField(value));
+            Database.getBufferPool().insertTuple(t, table.getId(), tup);
+        }
+
+        /**
+         * Inserts 0..n-1 twice each, in random order.
+         * @return the keys inserted, in order
+         */
+        protected List<Integer> insertShuffled(int n) throws Exception {
+            List<Integer> keys = new ArrayList<Integer>();
+            for (int i = 0; i < n; i++) {
+                keys.add(i);
+                keys.add(i);
+            }
+            Collections.shuffle(keys, new Random(1));
+            for (int i = 0; i < keys.size(); i++) {
+                insert(tid, keys.get(i), i);
+            }
+            Collections.sort(keys);
+            return keys;
+        }
+    }
 }
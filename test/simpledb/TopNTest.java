@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for TopN.getNext(), which returns the first tuples of the
+   * same sort as OrderBy, with ties in child order
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    int[] fields = { 0 };
+    boolean[] ascs = { false };
+    TopN top = new TopN(fields, ascs, 100, TestUtil.createKeyedTupleList(5000, 300));
+    OrderBy all = new OrderBy(fields, ascs, TestUtil.createKeyedTupleList(5000, 300));
+    top.open();
+    all.open();
+    for (int i = 0; i < 100; i++) {
+      assertTrue(top.hasNext());
+      Tuple expected = all.next();
+      Tuple t = top.next();
+      assertEquals(expected.getField(0), t.getField(0));
+      assertEquals(expected.getField(1), t.getField(1));
+    }
+    assertFalse(top.hasNext());
+
+    top.rewind();
+    int n = 0;
+    while (top.hasNext()) {
+      top.next();
+      n++;
+    }
+    assertEquals(100, n);
+    top.close();
+    all.close();
+  }
+
+  /**
+   * Unit test for TopN with a limit larger than the child, which returns
+   * all of it without allocating room for the limit up front
+   */
+  @Test public void hugeLimit() throws Exception {
+    TopN top = new TopN(new int[] { 0 }, new boolean[] { true }, Integer.MAX_VALUE,
+        TestUtil.createKeyedTupleList(100, 10));
+    assertEquals(100, TestUtil.count(top));
+  }
+
+  /**
+   * Unit test for TopN without sort fields, which is a LIMIT, and a LIMIT 0
+   */
+  @Test public void limitOnly() throws Exception {
+    TopN top = new TopN(new int[0], new boolean[0], 3, TestUtil.createKeyedTupleList(100, 10));
+    top.open();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(new IntField(i), top.next().getField(1));
+    }
+    assertFalse(top.hasNext());
+    top.rewind();
+    assertEquals(new IntField(0), top.next().getField(1));
+    top.close();
+
+    TopN none = new TopN(new int[] { 0 }, new boolean[] { true }, 0, TestUtil.createKeyedTupleList(100, 10));
+    assertEquals(0, TestUtil.count(none));
+  }
+
+  @Test public void parsesLimit() throws Exception {
+    StringBuilder sb = new StringBuilder("SELECT * FROM t ORDER BY t.a DESC LIMIT 10;");
+    assertEquals(10, Parser.stripLimit(sb));
+    assertEquals("SELECT * FROM t ORDER BY t.a DESC;", sb.toString());
+    sb = new StringBuilder("SELECT * FROM t;");
+    assertEquals(-1, Parser.stripLimit(sb));
+  }
+
+  @Test(expected = ParsingException.class)
+  public void rejectsLimitOutOfRange() throws Exception {
+    Parser.stripLimit(new StringBuilder("SELECT * FROM t LIMIT 2147483648;"));
+  }
+
+  /**
+   * The planner fuses ORDER BY and LIMIT into a TopN
+   */
+  @Test public void plannedForOrderByLimit() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, null, "c");
+    Database.getCatalog().addTable(f, "topn");
+    TableStats.setTableStats("topn", new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT topn.c0 FROM topn ORDER BY topn.c0 LIMIT 5;");
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+    plan.open();
+    int n = 0;
+    int prev = Integer.MIN_VALUE;
+    while (plan.hasNext()) {
+      int v = ((IntField) plan.next().getField(0)).getValue();
+      assertTrue(prev <= v);
+      prev = v;
+      n++;
+    }
+    plan.close();
+    assertEquals(5, n);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}